@@ -25,6 +25,10 @@ public class LocalProctorBuilder extends ProctorBuilder {
         super(new LocalDirectoryStore(inputDir), outputSink, author, version);
     }
 
+    public LocalProctorBuilder(File inputDir, Writer outputSink, OutputStream binaryOutputSink, String author, long version) {
+        super(new LocalDirectoryStore(inputDir), outputSink, binaryOutputSink, author, version);
+    }
+
     private static class LocalProctorBuilderArgs extends ProctorBuilderArgs {
         private String inputdir;
 
@@ -53,14 +57,23 @@ public class LocalProctorBuilder extends ProctorBuilder {
         arguments.parse(args);
 
         String filename = arguments.getFilename();
+        String binaryFilename = arguments.getBinaryFilename();
+        OutputStream binaryOutputSink = null;
         try {
+            if (binaryFilename != null) {
+                binaryOutputSink = new BufferedOutputStream(new FileOutputStream(new File(arguments.getOutputdir(), binaryFilename)));
+            }
             new LocalProctorBuilder(
                     new File(arguments.getInputdir()),
                     "-".equals(filename) ?
                         new PrintWriter(System.out) :
                         new FileWriter(new File(arguments.getOutputdir(), arguments.getFilename())),
+                    binaryOutputSink,
                     arguments.getAuthor(),
                     arguments.getVersion()).execute();
+            if (binaryOutputSink != null) {
+                binaryOutputSink.close();
+            }
         } catch (Exception e) {
             LOGGER.error("Failed to generates proctor artifact from " + arguments.getInputdir(), e);
             System.exit(1);
@@ -6,6 +6,7 @@ import com.indeed.proctor.store.StoreException;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 
 public class ProctorBuilder {
@@ -14,6 +15,7 @@ public class ProctorBuilder {
 
     private final ProctorReader proctorReader;
     private final Writer outputSink;
+    private final OutputStream binaryOutputSink;
     private final String author;
     private long version;
 
@@ -24,13 +26,20 @@ public class ProctorBuilder {
         this(proctorReader, outputSink, author, -1);
     }
     public ProctorBuilder(final ProctorReader proctorReader, Writer outputSink, String author, long version) {
+        this(proctorReader, outputSink, null, author, version);
+    }
+    /**
+     * @param binaryOutputSink if not null, also receives the artifact in the binary format, which loads faster
+     */
+    public ProctorBuilder(final ProctorReader proctorReader, Writer outputSink, OutputStream binaryOutputSink, String author, long version) {
         this.proctorReader = proctorReader;
         this.outputSink = outputSink;
+        this.binaryOutputSink = binaryOutputSink;
         this.author = author;
         this.version = version;
     }
 
     public void execute() throws StoreException, IOException, IncompatibleTestMatrixException {
-        ProctorBuilderUtils.generateArtifact(proctorReader, outputSink, author, version);
+        ProctorBuilderUtils.generateArtifact(proctorReader, outputSink, binaryOutputSink, author, version);
     }
 }
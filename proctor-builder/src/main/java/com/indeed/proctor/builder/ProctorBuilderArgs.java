@@ -17,6 +17,7 @@ class ProctorBuilderArgs {
 
     private String outputdir;
     private String filename;
+    private String binaryFilename = null;
 
     // Artifact overrides
     private String author = null;
@@ -37,6 +38,11 @@ class ProctorBuilderArgs {
                               .withArgName("filename")
                               .withDescription("The filename to use. default=proctor-tests-matrix.json")
                               .create("f"));
+        options.addOption(OptionBuilder.hasArg(true)
+                              .withLongOpt("binary-filename")
+                              .withArgName("binary filename")
+                              .withDescription("If set, also write the artifact in the binary format to this file in the output directory")
+                              .create("b"));
 
         options.addOption(OptionBuilder.hasArg(true)
                               .withArgName("author")
@@ -70,6 +76,7 @@ class ProctorBuilderArgs {
     protected void extract(final CommandLine results) {
         this.outputdir = results.getOptionValue("output", "-");
         this.filename = results.getOptionValue("filename", "proctor-tests-matrix.json");
+        this.binaryFilename = results.getOptionValue("binary-filename");
 
         if (results.hasOption("author")) {
             this.author = results.getOptionValue("author");
@@ -92,6 +99,10 @@ class ProctorBuilderArgs {
         return filename;
     }
 
+    public String getBinaryFilename() {
+        return binaryFilename;
+    }
+
     public String getAuthor() {
         return author;
     }
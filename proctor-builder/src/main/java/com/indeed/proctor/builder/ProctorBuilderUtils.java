@@ -2,6 +2,7 @@ package com.indeed.proctor.builder;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Strings;
+import com.indeed.proctor.common.BinaryArtifacts;
 import com.indeed.proctor.common.IncompatibleTestMatrixException;
 import com.indeed.proctor.common.ProctorUtils;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
@@ -20,6 +21,16 @@ class ProctorBuilderUtils {
 
     static void generateArtifact(final ProctorReader proctorPersister, final Writer outputSink,
                                            final String authorOverride, final long versionOverride
+    ) throws IOException, IncompatibleTestMatrixException, StoreException {
+        generateArtifact(proctorPersister, outputSink, null, authorOverride, versionOverride);
+    }
+
+    /**
+     * @param binaryOutputSink if not null, also receives the artifact in the {@link BinaryArtifacts binary format}
+     */
+    static void generateArtifact(final ProctorReader proctorPersister, final Writer outputSink,
+                                           final OutputStream binaryOutputSink,
+                                           final String authorOverride, final long versionOverride
     ) throws IOException, IncompatibleTestMatrixException, StoreException {
         final TestMatrixVersion currentTestMatrix = proctorPersister.getCurrentTestMatrix();
         if(currentTestMatrix == null) {
@@ -43,5 +54,8 @@ class ProctorBuilderUtils {
         }
 
         ProctorUtils.serializeArtifact(outputSink, artifact);
+        if (binaryOutputSink != null) {
+            BinaryArtifacts.serialize(binaryOutputSink, artifact);
+        }
     }
 }
@@ -263,6 +263,37 @@ public class TestUnitTestGroupsManager {
         assertEquals("kluj2,oop_poop1", grps.toString());
     }
 
+    @Test
+    public void testGroupsSeeChangedBuckets() {
+        final Identifiers identifiers = new Identifiers(TestType.USER, "16s2o7s01001d9vj");
+        final ProctorResult result = manager.determineBuckets(identifiers, /* loggedin */ true , /* country */ "FR", /* accountid */ 10);
+        assertEquals("kluj:test1,oop_poop:control0,payloaded:inactive-1,payloaded_verified:inactive-1", calcBuckets(result));
+        //  callers can still adjust a result before building groups from it
+        result.getBuckets().put("kluj", new TestBucket("loooj", 3, "loooj"));
+        result.getBuckets().remove("oop_poop");
+
+        final InspectableGroups grps = new InspectableGroups(result);
+        assertEquals(UnitTestGroups.Kluj.LOOOJ, grps.getKluj());
+        assertEquals(3, grps.getKlujValue(-99));
+        assertTrue(grps.isKlujLoooj());
+        assertFalse(grps.isKlujTest());
+        assertTrue(grps.isActive("kluj", 3));
+        assertNull(grps.getOop_poop());
+        assertEquals(-99, grps.getOop_poopValue(-99));
+        assertFalse(grps.isActive("oop_poop", 0));
+        assertEquals("kluj3", grps.toString());
+    }
+
+    private static class InspectableGroups extends UnitTestGroups {
+        private InspectableGroups(final ProctorResult proctorResult) {
+            super(proctorResult);
+        }
+
+        private boolean isActive(final String testName, final int value) {
+            return isBucketActive(testName, value);
+        }
+    }
+
     private String calcBuckets(ProctorResult proctorResult) {
         final StringBuilder sb = new StringBuilder();
         // Current behavior is mapping from { testName -> TestBucket }
@@ -66,6 +66,7 @@ public class TestGroupsGenerator extends FreeMarkerCodeGenerator {
             });
 
             boolean foundFallbackValue = false;
+            final Set<Integer> bucketValues = Sets.newHashSet();
             for (final Entry<String, Integer> bucket : sortedBuckets) {
                 final String bucketName = bucket.getKey();
                 final String enumName = toEnumName(bucketName);
@@ -77,6 +78,8 @@ public class TestGroupsGenerator extends FreeMarkerCodeGenerator {
                 bucketDef.put("normalizedName", normalizedBucketName);
                 bucketDef.put("enumName", enumName);
                 bucketDef.put("javaClassName", uppercaseFirstChar(normalizedBucketName));
+                //  the bucket a value maps back to, if several share it
+                bucketDef.put("firstWithValue", bucketValues.add(bucket.getValue()));
 
                 buckets.add(bucketDef);
 
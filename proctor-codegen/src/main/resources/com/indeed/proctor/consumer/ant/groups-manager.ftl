@@ -4,10 +4,12 @@ import com.indeed.proctor.common.*;
 import com.indeed.proctor.common.model.*;
 import com.indeed.proctor.consumer.*;
 
+import java.util.AbstractMap;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -29,6 +31,63 @@ public class ${mainClassName} extends AbstractGroupsManager {
         PROVIDED_CONTEXT = Collections.unmodifiableMap(providedContext);
     }
 
+    /**
+     * The tests in this application's specification; pass this to the determineBuckets methods that take a
+     * {@link TestSubset} to skip the other tests in the test matrix.
+     */
+    public static final TestSubset SPECIFIED_TESTS = TestSubset.of(
+        <#list testDefs as testDef>
+            "${testDef.name}"<#if testDef_has_next>,</#if>
+        </#list>
+            );
+
+<#if contextArguments?has_content>
+    /**
+     * The provided context of a single request, as a map of fixed shape: built with one allocation, and looked up
+     * without hashing
+     */
+    private static final class ProvidedContext extends AbstractMap<String, Object> {
+    <#list contextArguments?keys as contextArgumentName>
+        private final ${contextArguments[contextArgumentName]} ${contextArgumentName};
+    </#list>
+
+        private ProvidedContext(<#list contextArguments?keys as contextArgumentName>final ${contextArguments[contextArgumentName]} ${contextArgumentName}<#if contextArgumentName_has_next>, </#if></#list>) {
+    <#list contextArguments?keys as contextArgumentName>
+            this.${contextArgumentName} = ${contextArgumentName};
+    </#list>
+        }
+
+        @Override
+        public Object get(final Object variableName) {
+    <#list contextArguments?keys as contextArgumentName>
+            if ("${contextArgumentName}".equals(variableName)) {
+                return this.${contextArgumentName};
+            }
+    </#list>
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(final Object variableName) {
+            return PROVIDED_CONTEXT.containsKey(variableName);
+        }
+
+        @Override
+        public int size() {
+            return PROVIDED_CONTEXT.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            final Map<String, Object> context = new LinkedHashMap<String, Object>();
+    <#list contextArguments?keys as contextArgumentName>
+            context.put("${contextArgumentName}", this.${contextArgumentName});
+    </#list>
+            return Collections.unmodifiableMap(context).entrySet();
+        }
+    }
+
+</#if>
     public ${mainClassName}(final Supplier<Proctor> proctorSource) {
         super(proctorSource);
     }
@@ -44,10 +103,7 @@ public class ${mainClassName} extends AbstractGroupsManager {
                                     final ${contextArguments[contextArgumentName]} ${contextArgumentName}<#if contextArgumentName_has_next>,<#else>) {</#if>
 </#list>
         <#if contextArguments?has_content>
-        final Map<String, Object> context = new HashMap<String, Object>();
-            <#list contextArguments?keys as contextArgumentName>
-        context.put("${contextArgumentName}", ${contextArgumentName});
-            </#list>
+        final Map<String, Object> context = new ProvidedContext(<#list contextArguments?keys as contextArgumentName>${contextArgumentName}<#if contextArgumentName_has_next>, </#if></#list>);
         <#else>
         final Map<String, Object> context = Collections.emptyMap();
         </#if>
@@ -64,10 +120,7 @@ public class ${mainClassName} extends AbstractGroupsManager {
                                     final ${contextArguments[contextArgumentName]} ${contextArgumentName}<#if contextArgumentName_has_next>,<#else>) {</#if>
 </#list>
         <#if contextArguments?has_content>
-        final Map<String, Object> context = new HashMap<String, Object>();
-            <#list contextArguments?keys as contextArgumentName>
-        context.put("${contextArgumentName}", ${contextArgumentName});
-            </#list>
+        final Map<String, Object> context = new ProvidedContext(<#list contextArguments?keys as contextArgumentName>${contextArgumentName}<#if contextArgumentName_has_next>, </#if></#list>);
         <#else>
         final Map<String, Object> context = Collections.emptyMap();
         </#if>
@@ -85,16 +138,32 @@ public class ${mainClassName} extends AbstractGroupsManager {
                                     final ${contextArguments[contextArgumentName]} ${contextArgumentName}<#if contextArgumentName_has_next>,<#else>) {</#if>
 </#list>
         <#if contextArguments?has_content>
-        final Map<String, Object> context = new HashMap<String, Object>();
-            <#list contextArguments?keys as contextArgumentName>
-        context.put("${contextArgumentName}", ${contextArgumentName});
-            </#list>
+        final Map<String, Object> context = new ProvidedContext(<#list contextArguments?keys as contextArgumentName>${contextArgumentName}<#if contextArgumentName_has_next>, </#if></#list>);
         <#else>
         final Map<String, Object> context = Collections.emptyMap();
         </#if>
         return super.determineBucketsInternal(identifiers, context, forcedGroups);
     }
 
+    /**
+     * This should be used for non-webapp applications that are working
+     * with test groups as those applications will not have a request and response,
+     * such as boxcar services.
+     * Only the tests in <code>tests</code> are determined, e.g. {@link #SPECIFIED_TESTS}.
+     */
+    public ProctorResult determineBuckets(final TestSubset tests,
+                                            final Identifiers identifiers<#if contextArguments?has_content>,<#else>) {</#if>
+<#list contextArguments?keys as contextArgumentName>
+                                    final ${contextArguments[contextArgumentName]} ${contextArgumentName}<#if contextArgumentName_has_next>,<#else>) {</#if>
+</#list>
+        <#if contextArguments?has_content>
+        final Map<String, Object> context = new ProvidedContext(<#list contextArguments?keys as contextArgumentName>${contextArgumentName}<#if contextArgumentName_has_next>, </#if></#list>);
+        <#else>
+        final Map<String, Object> context = Collections.emptyMap();
+        </#if>
+        return super.determineBucketsInternal(tests, identifiers, context, Collections.<String, Integer>emptyMap());
+    }
+
     /*
      * @deprecated Use the one that takes Identifiers instead
      */
@@ -117,16 +186,29 @@ public class ${mainClassName} extends AbstractGroupsManager {
                                             final ${contextArguments[contextArgumentName]} ${contextArgumentName}<#if contextArgumentName_has_next>,<#else>) {</#if>
 </#list>
         <#if contextArguments?has_content>
-        final Map<String, Object> context = new HashMap<String, Object>();
-            <#list contextArguments?keys as contextArgumentName>
-        context.put("${contextArgumentName}", ${contextArgumentName});
-            </#list>
+        final Map<String, Object> context = new ProvidedContext(<#list contextArguments?keys as contextArgumentName>${contextArgumentName}<#if contextArgumentName_has_next>, </#if></#list>);
         <#else>
         final Map<String, Object> context = Collections.emptyMap();
         </#if>
         return super.determineBucketsInternal(request, response, identifiers, context, allowForcedGroups);
     }
 
+    /**
+     * Only the tests in <code>tests</code> are determined, e.g. {@link #SPECIFIED_TESTS}.
+     */
+    public ProctorResult determineBuckets(final HttpServletRequest request, final HttpServletResponse response, final TestSubset tests,
+                                            final Identifiers identifiers, final boolean allowForcedGroups<#if contextArguments?has_content>,<#else>) {</#if>
+<#list contextArguments?keys as contextArgumentName>
+                                            final ${contextArguments[contextArgumentName]} ${contextArgumentName}<#if contextArgumentName_has_next>,<#else>) {</#if>
+</#list>
+        <#if contextArguments?has_content>
+        final Map<String, Object> context = new ProvidedContext(<#list contextArguments?keys as contextArgumentName>${contextArgumentName}<#if contextArgumentName_has_next>, </#if></#list>);
+        <#else>
+        final Map<String, Object> context = Collections.emptyMap();
+        </#if>
+        return super.determineBucketsInternal(request, response, tests, identifiers, context, allowForcedGroups);
+    }
+
     private static final Map<String, TestBucket> DEFAULT_BUCKET_VALUES = constructDefaultBucketValuesMap();
     private static Map<String, TestBucket> constructDefaultBucketValuesMap() {
         final Map<String, TestBucket> defaultBucketValues = new HashMap<String, TestBucket>();
@@ -11,10 +11,19 @@ import javax.annotation.Nullable;
  * (but you can extend me.  you'll want to override {@link #toString()}, using {@link #buildTestGroupString()} or {@link #appendTestGroups(StringBuilder)} instead)
  */
 public class ${mainClassName} extends AbstractGroups {
+    /**
+     * The tests, numbered as in {@link ${testEnumName}}
+     */
+    private static final TestIndexMapping TESTS = new TestIndexMapping(
+        <#list testDefs as testDef>
+            "${testDef.normalizedName}"<#if testDef_has_next>,</#if>
+        </#list>
+            );
+
     public static final ${mainClassName} EMPTY = new ${mainClassName}(ProctorResult.EMPTY);
 
     public ${mainClassName}(final ProctorResult proctorResult) {
-        super(proctorResult);
+        super(proctorResult, TESTS);
     }
 
     public static Bucket<${testEnumName}>[] getBuckets(final ${testEnumName} test) {
@@ -77,30 +86,44 @@ public class ${mainClassName} extends AbstractGroups {
         public String getFullName() {
             return fullName;
         }
+
+        /**
+         * @return the bucket with the given value, or null if there is none
+         */
+        public static @Nullable ${testDef.javaClassName} fromValue(final int value) {
+            switch (value) {
+                <#list testDef.buckets as bucket>
+                <#if bucket.firstWithValue>
+                case ${bucket.value?c}:
+                    return ${bucket.enumName};
+                </#if>
+                </#list>
+                default:
+                    return null;
+            }
+        }
     }
 
 </#list>
 <#list testDefs as testDef>
     public ${testDef.javaClassName} get${testDef.javaClassName}() {
-        for (final ${testDef.javaClassName} bucket : ${testDef.javaClassName}.values()) {
-            final String testName = Test.${testDef.enumName}.getName();
-            if (isBucketActive(testName, bucket.getValue())) {
-                return bucket;
-            }
+        final @Nullable TestBucket bucket = getTestBucket(${testDef_index?c});
+        if (bucket == null) {
+            return null;
         }
-        return null;
+        return ${testDef.javaClassName}.fromValue(bucket.getValue());
     }
 
     /**
       * perhaps defaultValue should be specified in and supplied from src/proctor/proctor-specification.json
       */
     public int get${testDef.javaClassName}Value(final int defaultValue) {
-        return getValue(${testEnumName}.${testDef.enumName}.getName(), defaultValue);
+        return getValue(${testDef_index?c}, defaultValue);
     }
 
     <#if (testDef.payloadJavaClass)??>
     public @Nullable ${testDef.payloadJavaClass} get${testDef.javaClassName}Payload() {
-        return getPayload(${testEnumName}.${testDef.enumName}.getName()).${testDef.payloadAccessorName}();
+        return getPayload(${testDef_index?c}).${testDef.payloadAccessorName}();
     }
 
     public @Nullable ${testDef.payloadJavaClass} get${testDef.javaClassName}PayloadForBucket(final ${testDef.javaClassName} targetBucket) {
@@ -118,9 +141,8 @@ public class ${mainClassName} extends AbstractGroups {
 
 <#list testDef.buckets as bucket>
     public boolean is${testDef.javaClassName}${bucket.javaClassName}() {
-        final String testName = Test.${testDef.enumName}.getName();
         final int bucketValue = ${testDef.javaClassName}.${bucket.enumName}.getValue();
-        return isBucketActive(testName, bucketValue);
+        return isBucketActive(${testDef_index?c}, bucketValue);
     }
 <#if bucket_has_next || testDef_has_next>
 
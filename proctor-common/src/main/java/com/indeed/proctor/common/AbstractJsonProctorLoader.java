@@ -1,5 +1,11 @@
 package com.indeed.proctor.common;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.indeed.util.varexport.Export;
 import com.indeed.util.varexport.VarExporter;
 import com.indeed.proctor.common.model.TestMatrixArtifact;
@@ -12,15 +18,40 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.el.FunctionMapper;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 
 public abstract class AbstractJsonProctorLoader extends AbstractProctorLoader {
     private static final Logger LOGGER = Logger.getLogger(FileProctorLoader.class);
+    /**
+     * Only used to tell whether the source changed, so it need not be cryptographic, just unlikely to collide
+     */
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
 
     @Nonnull
     private final ObjectMapper objectMapper = Serializers.lenient();
+    /**
+     * Raw contents of a recent successful load, kept for the detail page; the same array that was parsed, not a copy
+     */
     @Nullable
-    private String fileContents = null;
+    private byte[] fileContents = null;
+    private int maxRetainedFileContentsSize = Integer.MAX_VALUE;
+    /**
+     * Fingerprint of the contents of the last successful load, and of the contents being loaded now
+     */
+    @Nullable
+    private HashCode loadedFingerprint = null;
+    @Nullable
+    private HashCode pendingFingerprint = null;
+    /**
+     * Cheap description of the source's version (e.g. modification time and size) of the last successful load, and of
+     * the one being loaded now; see {@link #isUnchanged(String)}
+     */
+    @Nullable
+    private String loadedStamp = null;
+    @Nullable
+    private String pendingStamp = null;
 
     public AbstractJsonProctorLoader(@Nonnull final Class<?> cls, @Nonnull final ProctorSpecification specification, @Nonnull final FunctionMapper functionMapper) {
         super(cls, specification, functionMapper);
@@ -29,6 +60,114 @@ public abstract class AbstractJsonProctorLoader extends AbstractProctorLoader {
         VarExporter.forNamespace(detailObject.getClass().getSimpleName()).export(detailObject, "");
     }
 
+    /**
+     * Checks a cheap description of the source's current version, such as its modification time and size, before
+     * anything is read: if it is the same as when the matrix was last loaded, the loader should return
+     * {@link #UNCHANGED_TEST_MATRIX} without reading the source.
+     * @param stamp the description, or null if there is none, in which case the source is always read
+     */
+    protected boolean isUnchanged(@Nullable final String stamp) {
+        pendingStamp = stamp;
+        return stamp != null && stamp.equals(loadedStamp) && loadedFingerprint != null;
+    }
+
+    /**
+     * Limits the size of the raw contents kept for the detail page ({@link #getFileContents()}); larger contents are
+     * not kept at all, and 0 keeps none. Unlimited by default.
+     */
+    public void setMaxRetainedFileContentsSize(final int maxRetainedFileContentsSize) {
+        this.maxRetainedFileContentsSize = maxRetainedFileContentsSize;
+        if (fileContents != null && fileContents.length > maxRetainedFileContentsSize) {
+            fileContents = null;
+        }
+    }
+
+    /**
+     * Reads the whole matrix, and only parses it if its bytes differ from those of the last successful load.
+     * @return the matrix, or {@link #UNCHANGED_TEST_MATRIX}
+     */
+    @Nullable
+    protected TestMatrixArtifact loadJsonTestMatrix(@Nonnull final InputStream inputStream) throws IOException {
+        final byte[] newContents;
+        try {
+            newContents = ByteStreams.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        return loadJsonTestMatrix(newContents);
+    }
+
+    /**
+     * Parses the matrix straight from its bytes, unless they are the same as those of the last successful load.
+     * The contents can also be a {@link BinaryArtifacts binary artifact}, which is recognized by its header.
+     * @return the matrix, or {@link #UNCHANGED_TEST_MATRIX}
+     */
+    @Nullable
+    protected TestMatrixArtifact loadJsonTestMatrix(@Nonnull final byte[] newContents) throws IOException {
+        final HashCode fingerprint = FINGERPRINT.hashBytes(newContents);
+        if (isUnchangedContent(fingerprint)) {
+            return UNCHANGED_TEST_MATRIX;
+        }
+        try {
+            final boolean binary = BinaryArtifacts.isBinaryArtifact(newContents);
+            final TestMatrixArtifact testMatrix = binary
+                    ? BinaryArtifacts.deserialize(newContents)
+                    : objectMapper.readValue(newContents, TestMatrixArtifact.class);
+            if (testMatrix != null) {
+                //  record the file contents AFTER successfully loading the matrix; binary contents are not readable
+                retainFileContents(binary ? null : newContents);
+            }
+            return testMatrix;
+        } catch (@Nonnull final JsonParseException e) {
+            LOGGER.error("Unable to load test matrix from " + getSource(), e);
+            throw e;
+        } catch (@Nonnull final JsonMappingException e) {
+            LOGGER.error("Unable to load test matrix from " + getSource(), e);
+            throw e;
+        } catch (@Nonnull final IOException e) {
+            LOGGER.error("Unable to load test matrix from " + getSource(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link #loadJsonTestMatrix(byte[])}, but parses the remaining contents of the buffer (such as a mapped
+     * file) in place; they are only copied if they are retained for {@link #getFileContents()}.
+     * @return the matrix, or {@link #UNCHANGED_TEST_MATRIX}
+     */
+    @Nullable
+    protected TestMatrixArtifact loadJsonTestMatrix(@Nonnull final ByteBuffer contents) throws IOException {
+        if (isUnchangedContent(fingerprint(contents.duplicate()))) {
+            return UNCHANGED_TEST_MATRIX;
+        }
+        try {
+            final boolean binary = BinaryArtifacts.isBinaryArtifact(contents);
+            final TestMatrixArtifact testMatrix = binary
+                    ? BinaryArtifacts.deserialize(contents.duplicate())
+                    : objectMapper.readValue(new ByteBufferInputStream(contents.duplicate()), TestMatrixArtifact.class);
+            if (testMatrix != null) {
+                //  record the file contents AFTER successfully loading the matrix; binary contents are not readable
+                if (binary || contents.remaining() > maxRetainedFileContentsSize) {
+                    retainFileContents(null);
+                } else {
+                    final byte[] newContents = new byte[contents.remaining()];
+                    contents.duplicate().get(newContents);
+                    retainFileContents(newContents);
+                }
+            }
+            return testMatrix;
+        } catch (@Nonnull final JsonParseException e) {
+            LOGGER.error("Unable to load test matrix from " + getSource(), e);
+            throw e;
+        } catch (@Nonnull final JsonMappingException e) {
+            LOGGER.error("Unable to load test matrix from " + getSource(), e);
+            throw e;
+        } catch (@Nonnull final IOException e) {
+            LOGGER.error("Unable to load test matrix from " + getSource(), e);
+            throw e;
+        }
+    }
+
     @Nullable
     protected TestMatrixArtifact loadJsonTestMatrix(@Nonnull final Reader reader) throws IOException {
         final char[] buffer = new char[1024];
@@ -44,11 +183,14 @@ public abstract class AbstractJsonProctorLoader extends AbstractProctorLoader {
         }
         reader.close();
         final String newContents = sb.toString();
+        if (isUnchangedContent(FINGERPRINT.hashUnencodedChars(newContents))) {
+            return UNCHANGED_TEST_MATRIX;
+        }
         try {
             final TestMatrixArtifact testMatrix = objectMapper.readValue(newContents, TestMatrixArtifact.class);
             if (testMatrix != null) {
                 //  record the file contents AFTER successfully loading the matrix
-                fileContents = newContents;
+                retainFileContents(newContents.getBytes(Charsets.UTF_8));
             }
             return testMatrix;
         } catch (@Nonnull final JsonParseException e) {
@@ -63,9 +205,87 @@ public abstract class AbstractJsonProctorLoader extends AbstractProctorLoader {
         }
     }
 
+    /**
+     * Same as hashing the remaining bytes as an array, without copying them all into one
+     */
+    @Nonnull
+    private static HashCode fingerprint(@Nonnull final ByteBuffer contents) {
+        final Hasher hasher = FINGERPRINT.newHasher();
+        final byte[] chunk = new byte[8192];
+        while (contents.hasRemaining()) {
+            final int length = Math.min(chunk.length, contents.remaining());
+            contents.get(chunk, 0, length);
+            hasher.putBytes(chunk, 0, length);
+        }
+        return hasher.hash();
+    }
+
+    private void retainFileContents(@Nullable final byte[] contents) {
+        fileContents = (contents != null && contents.length <= maxRetainedFileContentsSize) ? contents : null;
+    }
+
+    /**
+     * @return true if the contents are the same as when the matrix was last loaded; otherwise they are remembered
+     * until the matrix is loaded
+     */
+    private boolean isUnchangedContent(@Nonnull final HashCode fingerprint) {
+        if (fingerprint.equals(loadedFingerprint)) {
+            //  the source's current stamp describes the loaded contents too
+            loadedStamp = pendingStamp;
+            return true;
+        }
+        pendingFingerprint = fingerprint;
+        return false;
+    }
+
+    @Override
+    void testMatrixLoaded() {
+        loadedFingerprint = pendingFingerprint;
+        loadedStamp = pendingStamp;
+    }
+
+    /**
+     * @return the contents of a recent successful load, or null if they were not retained
+     */
     @Nullable
     public String getFileContents() {
-        return fileContents;
+        final byte[] contents = fileContents;
+        return contents == null ? null : new String(contents, Charsets.UTF_8);
+    }
+
+    /**
+     * Reads the remaining contents of a buffer, so that Jackson can parse from it directly
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        @Nonnull
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(@Nonnull final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(@Nonnull final byte[] bytes, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (! buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
     }
 
     /* class ProctorLoaderDetail is public so VarExporter works correctly */
@@ -76,7 +296,7 @@ public abstract class AbstractJsonProctorLoader extends AbstractProctorLoader {
         }
 
         @Nullable
-        @Export(name="file-contents", doc="The file contents of a recent successful load. If the file contains invalid JSON, the file contents will not be set.")
+        @Export(name="file-contents", doc="The file contents of a recent successful load. If the file contains invalid JSON, is a binary artifact, or is larger than the retention limit, the file contents will not be set.")
         public String getLastFileContents() {
             return getFileContents();
         }
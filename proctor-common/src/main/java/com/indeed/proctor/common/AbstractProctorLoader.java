@@ -2,6 +2,9 @@ package com.indeed.proctor.common;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
 import com.indeed.util.core.DataLoadingTimerTask;
 import com.indeed.util.varexport.Export;
 import com.indeed.proctor.common.model.Audit;
@@ -13,34 +16,98 @@ import javax.annotation.Nullable;
 import javax.el.FunctionMapper;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractProctorLoader extends DataLoadingTimerTask implements Supplier<Proctor> {
     private static final Logger LOGGER = Logger.getLogger(AbstractProctorLoader.class);
 
+    /**
+     * Returned by {@link #loadTestMatrix()} instead of a matrix when the source is known to be unchanged since the
+     * last successful load, so that there is nothing to parse or verify
+     */
+    static final TestMatrixArtifact UNCHANGED_TEST_MATRIX = new TestMatrixArtifact();
+
     @Nonnull
     protected final Map<String, TestSpecification> requiredTests;
+    @Nonnull
+    private final Map<String, String> providedContext;
+    /**
+     * Volatile so that readers see a new Proctor as soon as it is published
+     */
+    @Nullable
+    private volatile Proctor current = null;
+    @Nullable
+    private volatile Audit lastAudit = null;
+    @Nullable
+    private volatile String lastLoadErrorMessage= "load never attempted";
+    private volatile long lastBuildMillis = -1;
+    private volatile long lastWarmUpMillis = -1;
+    private volatile int warmUpIterations = 0;
+    /**
+     * Completed with the next Proctor published, then replaced
+     */
+    @Nonnull
+    private volatile SettableFuture<Proctor> nextProctor = SettableFuture.create();
+    private final Object asyncLoadLock = new Object();
+    @Nullable
+    private ListenableFuture<Boolean> asyncLoad = null;
     @Nullable
-    private Proctor current = null;
+    private volatile Executor reloadExecutor = null;
+    /**
+     * Outcome of the last call to {@link #load()}: its result, or null if it failed, and its failure; guarded by this
+     */
     @Nullable
-    private Audit lastAudit = null;
+    private Boolean lastLoadResult = null;
     @Nullable
-    private String lastLoadErrorMessage= "load never attempted";
+    private RuntimeException lastLoadFailure = null;
     @Nonnull
     private final FunctionMapper functionMapper;
 
     public AbstractProctorLoader(@Nonnull final Class<?> cls, @Nonnull final ProctorSpecification specification, @Nonnull final FunctionMapper functionMapper) {
         super(cls.getSimpleName());
         this.requiredTests = specification.getTests();
+        this.providedContext = specification.getProvidedContext();
         this.functionMapper = functionMapper;
     }
 
+    /**
+     * @return the test matrix, or {@link #UNCHANGED_TEST_MATRIX} if the source has not changed since the last load
+     */
     @Nullable
     abstract TestMatrixArtifact loadTestMatrix() throws IOException, MissingTestMatrixException;
+
+    /**
+     * Called when the matrix returned by the last call to {@link #loadTestMatrix()} has been loaded, or found to have
+     * the same audit version as the current one; loaders can then remember what they read as unchanged.
+     */
+    void testMatrixLoaded() {
+    }
     @Nonnull
     abstract String getSource();
 
+    /**
+     * Synchronized because loads can also be triggered outside the timer, e.g. by {@link #loadAsync} or
+     * {@link FileProctorLoader#startWatching}; a scheduled run that calls this directly waits for any of those to
+     * finish, unless a {@link #setReloadExecutor reload executor} is set.
+     */
     @Override
-    public boolean load() {
+    public synchronized boolean load() {
+        lastLoadResult = null;
+        lastLoadFailure = null;
+        try {
+            final boolean result = loadAndPublish();
+            lastLoadResult = result;
+            return result;
+        } catch (@Nonnull final RuntimeException e) {
+            lastLoadFailure = e;
+            throw e;
+        }
+    }
+
+    private boolean loadAndPublish() {
         final Proctor newProctor;
         try {
             newProctor = doLoad();
@@ -59,18 +126,126 @@ public abstract class AbstractProctorLoader extends DataLoadingTimerTask impleme
         final Audit lastAudit = Preconditions.checkNotNull(this.lastAudit, "Missing last audit");
         setDataVersion(lastAudit.getVersion() + " @ " + lastAudit.getUpdated() + " by " + lastAudit.getUpdatedBy());
         LOGGER.info("Successfully loaded new test matrix definition: " + lastAudit.getVersion() + " @ " + lastAudit.getUpdated() + " by " + lastAudit.getUpdatedBy());
+
+        final SettableFuture<Proctor> published = nextProctor;
+        nextProctor = SettableFuture.create();
+        published.set(newProctor);
         return true;
     }
 
+    /**
+     * Enables warming up each new Proctor before it is published, by determining the groups of every test for this many
+     * synthetic requests, whose contexts are derived from the specification's provided context; see
+     * {@link ProctorWarmUp}. This keeps the first real requests after a reload from paying for cold code paths.
+     * @param warmUpIterations the number of synthetic requests, 0 (the default) to disable warming up
+     */
+    public void setWarmUpIterations(final int warmUpIterations) {
+        this.warmUpIterations = warmUpIterations;
+        if (warmUpIterations <= 0) {
+            lastWarmUpMillis = -1;
+        }
+    }
+
+    /**
+     * Makes scheduled runs hand the reload to the given executor and return at once, so that the timer thread is never
+     * held up by a slow reload, or by a load started elsewhere. Like {@link #loadAsync}, a run that comes while a load
+     * started either way is still in progress does not queue another one.
+     * @param reloadExecutor the executor, or null (the default) to reload on the timer thread
+     */
+    public void setReloadExecutor(@Nullable final Executor reloadExecutor) {
+        this.reloadExecutor = reloadExecutor;
+    }
+
+    @Override
+    public void run() {
+        final Executor executor = reloadExecutor;
+        if (executor == null) {
+            super.run();
+            return;
+        }
+        try {
+            submitLoad(executor, new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return runAndReport();
+                }
+            });
+        } catch (@Nonnull final RejectedExecutionException e) {
+            //  an exception would cancel the timer
+            LOGGER.error("Unable to schedule a reload from " + getSource(), e);
+        }
+    }
+
+    /**
+     * Runs the timer task's own {@link DataLoadingTimerTask#run()}, which records the outcome for
+     * {@link #isLoadedDataSuccessfullyRecently()}, and reports the outcome of the load it made. The lock is held
+     * throughout, so that no other load can come in between.
+     * @return the result of {@link #load()}; fails if the load fails
+     */
+    private synchronized boolean runAndReport() {
+        lastLoadResult = null;
+        lastLoadFailure = null;
+        super.run();
+        if (lastLoadFailure != null) {
+            throw lastLoadFailure;
+        }
+        return Boolean.TRUE.equals(lastLoadResult);
+    }
+
+    /**
+     * Loads on the given executor rather than on the calling thread (such as a timer, or a request thread asking for
+     * a reload). The current Proctor keeps being used until the new one is built and published.
+     * While a load started this way, or by a scheduled run with a {@link #setReloadExecutor reload executor}, is
+     * running, further calls return its future rather than queueing another load.
+     * @return the result of {@link #load()}: true if a new Proctor was published; fails if the load fails
+     */
+    @Nonnull
+    public ListenableFuture<Boolean> loadAsync(@Nonnull final Executor executor) {
+        return submitLoad(executor, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return load();
+            }
+        });
+    }
+
+    @Nonnull
+    private ListenableFuture<Boolean> submitLoad(@Nonnull final Executor executor, @Nonnull final Callable<Boolean> load) {
+        synchronized (asyncLoadLock) {
+            if (asyncLoad != null && ! asyncLoad.isDone()) {
+                return asyncLoad;
+            }
+            final ListenableFutureTask<Boolean> task = ListenableFutureTask.create(load);
+            executor.execute(task);
+            asyncLoad = task;
+            return task;
+        }
+    }
+
+    /**
+     * @return a future completed with the next new Proctor published by this loader, however the load was started
+     */
+    @Nonnull
+    public ListenableFuture<Proctor> getNextProctor() {
+        return nextProctor;
+    }
+
     @Nullable
     public Proctor doLoad() throws IOException, MissingTestMatrixException {
+        final long start = System.nanoTime();
         final TestMatrixArtifact testMatrix = loadTestMatrix();
         if (testMatrix == null) {
             throw new MissingTestMatrixException("Failed to load Test Matrix from " + getSource());
         }
+        if (testMatrix == UNCHANGED_TEST_MATRIX) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Not reloading " + getSource() + " test matrix definition because the source is unchanged");
+            }
+            return null;
+        }
 
-        final ProctorLoadResult loadResult = ProctorUtils.verifyAndConsolidate(testMatrix, getSource(), requiredTests, functionMapper);
         final Audit newAudit = testMatrix.getAudit();
+        //  check the audit before verifying, which is wasted work if the matrix is not going to be used
         if (lastAudit != null) {
             final Audit audit = Preconditions.checkNotNull(newAudit, "Missing audit");
             if(lastAudit.getVersion() == audit.getVersion()) {
@@ -78,16 +253,37 @@ public abstract class AbstractProctorLoader extends DataLoadingTimerTask impleme
                     LOGGER.debug("Not reloading " + getSource() + " test matrix definition because audit is unchanged: " + lastAudit.getVersion() + " @ " + lastAudit.getUpdated() + " by " + lastAudit.getUpdatedBy());
                 }
 
+                testMatrixLoaded();
                 return null;
             }
         }
 
-        final Proctor proctor = Proctor.construct(testMatrix, loadResult, functionMapper);
+        final ProctorLoadResult loadResult = ProctorUtils.verifyAndConsolidate(testMatrix, getSource(), requiredTests, functionMapper);
+        final Proctor proctor = Proctor.construct(testMatrix, loadResult, functionMapper, current);
+        lastBuildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        final int warmUpIterations = this.warmUpIterations;
+        if (warmUpIterations > 0) {
+            warmUp(proctor, warmUpIterations);
+        } else {
+            lastWarmUpMillis = -1;
+        }
         //  kind of lame to modify lastAudit here but current in load(), but the interface is a little constraining
         this.lastAudit = newAudit;
+        testMatrixLoaded();
         return proctor;
     }
 
+    private void warmUp(@Nonnull final Proctor proctor, final int warmUpIterations) {
+        final long start = System.nanoTime();
+        try {
+            ProctorWarmUp.warmUp(proctor, providedContext, warmUpIterations);
+        } catch (@Nonnull final RuntimeException e) {
+            //  the Proctor is still usable, just not warm
+            LOGGER.warn("Unable to warm up test matrix from " + getSource(), e);
+        }
+        lastWarmUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
     @Nullable
     public Proctor get() {
         return current;
@@ -105,6 +301,16 @@ public abstract class AbstractProctorLoader extends DataLoadingTimerTask impleme
         return lastLoadErrorMessage;
     }
 
+    @Export(name = "last-build-millis", doc = "How long it took to read, verify and construct the current Proctor. -1 if none has been built.")
+    public long getLastBuildMillis() {
+        return lastBuildMillis;
+    }
+
+    @Export(name = "last-warm-up-millis", doc = "How long it took to warm up the current Proctor. -1 if warming up is disabled.")
+    public long getLastWarmUpMillis() {
+        return lastWarmUpMillis;
+    }
+
     // this is used for healthchecks
     @SuppressWarnings({"UnusedDeclaration"})
     public boolean isLoadedDataSuccessfullyRecently() {
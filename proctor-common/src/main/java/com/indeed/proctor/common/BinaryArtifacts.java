@@ -0,0 +1,555 @@
+package com.indeed.proctor.common;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.indeed.proctor.common.model.Allocation;
+import com.indeed.proctor.common.model.Audit;
+import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.HashAlgorithm;
+import com.indeed.proctor.common.model.Payload;
+import com.indeed.proctor.common.model.Range;
+import com.indeed.proctor.common.model.TestBucket;
+import com.indeed.proctor.common.model.TestMatrixArtifact;
+import com.indeed.proctor.common.model.TestType;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a {@link TestMatrixArtifact}, which decodes much faster and with less garbage than the
+ * JSON artifact. The JSON artifact remains the source of truth; the binary one is derived from it by the builder.
+ *
+ * The artifact is a header (magic number and format version), a table of every distinct string (test and bucket
+ * names, rules, descriptions, ...), and then the matrix, in which strings are indexes into the table and numbers are
+ * mostly variable-length. Decoded rules and names are therefore shared instances.
+ */
+public class BinaryArtifacts {
+    /**
+     * Cannot start a JSON document in any encoding
+     */
+    private static final byte[] MAGIC = { (byte) 0x89, 'P', 'T', 'M' };
+    /**
+     * Incremented on any incompatible change to the encoding; older artifacts are then rejected, not misread
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final ObjectMapper OBJECT_MAPPER = Serializers.lenient();
+
+    private static final int PAYLOAD_NONE = 0;
+    private static final int PAYLOAD_EMPTY = 1;
+    private static final int PAYLOAD_DOUBLE_VALUE = 2;
+    private static final int PAYLOAD_DOUBLE_ARRAY = 3;
+    private static final int PAYLOAD_LONG_VALUE = 4;
+    private static final int PAYLOAD_LONG_ARRAY = 5;
+    private static final int PAYLOAD_STRING_VALUE = 6;
+    private static final int PAYLOAD_STRING_ARRAY = 7;
+
+    //  tags of constant values, which can be anything JSON can
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_TRUE = 1;
+    private static final int VALUE_FALSE = 2;
+    private static final int VALUE_INTEGER = 3;
+    private static final int VALUE_LONG = 4;
+    private static final int VALUE_DOUBLE = 5;
+    private static final int VALUE_STRING = 6;
+    private static final int VALUE_LIST = 7;
+    private static final int VALUE_MAP = 8;
+    /**
+     * Any other value (e.g. a BigInteger) is kept as its JSON text
+     */
+    private static final int VALUE_JSON = 9;
+
+    private BinaryArtifacts() {
+    }
+
+    /**
+     * @return true if the contents start like a binary artifact, rather than a JSON one
+     */
+    public static boolean isBinaryArtifact(@Nonnull final byte[] contents) {
+        return isBinaryArtifact(ByteBuffer.wrap(contents));
+    }
+
+    /**
+     * @return true if the remaining contents start like a binary artifact, rather than a JSON one
+     */
+    public static boolean isBinaryArtifact(@Nonnull final ByteBuffer contents) {
+        if (contents.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (contents.get(contents.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void serialize(@Nonnull final OutputStream outputStream, @Nonnull final TestMatrixArtifact artifact) throws IOException {
+        //  the matrix is written first, so that the string table is complete when it is written before it
+        final ByteArrayOutputStream matrixBytes = new ByteArrayOutputStream();
+        final ArtifactWriter writer = new ArtifactWriter(new DataOutputStream(matrixBytes));
+        writer.writeArtifact(artifact);
+
+        final DataOutputStream out = new DataOutputStream(outputStream);
+        out.write(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeVarInt(out, writer.strings.size());
+        for (final String string : writer.strings.keySet()) {
+            final byte[] bytes = string.getBytes(Charsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+        matrixBytes.writeTo(out);
+        out.flush();
+    }
+
+    @Nonnull
+    public static TestMatrixArtifact deserialize(@Nonnull final byte[] contents) throws IOException {
+        return deserialize(ByteBuffer.wrap(contents));
+    }
+
+    /**
+     * Decodes the remaining contents of the buffer, which need not be backed by an array
+     */
+    @Nonnull
+    public static TestMatrixArtifact deserialize(@Nonnull final ByteBuffer contents) throws IOException {
+        if (! isBinaryArtifact(contents)) {
+            throw new IOException("Not a binary test matrix artifact");
+        }
+        //  a slice is big-endian, whatever the order of the buffer it was taken from
+        final ByteBuffer in = contents.slice();
+        in.position(MAGIC.length);
+        try {
+            final int formatVersion = in.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported binary test matrix artifact version " + formatVersion + ", expected " + FORMAT_VERSION);
+            }
+            return new ArtifactReader(in).readArtifact();
+        } catch (@Nonnull final BufferUnderflowException e) {
+            throw new IOException("Truncated binary test matrix artifact", e);
+        } catch (@Nonnull final IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt binary test matrix artifact", e);
+        } catch (@Nonnull final IllegalArgumentException e) {
+            throw new IOException("Corrupt binary test matrix artifact", e);
+        } catch (@Nonnull final ClassCastException e) {
+            throw new IOException("Corrupt binary test matrix artifact", e);
+        }
+    }
+
+    private static void writeVarInt(@Nonnull final DataOutputStream out, final int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+
+    private static void writeVarLong(@Nonnull final DataOutputStream out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.writeByte((int) (remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    /**
+     * Zigzag encoding, so that small negative numbers (such as the inactive bucket, -1) stay small
+     */
+    private static void writeSignedVarLong(@Nonnull final DataOutputStream out, final long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static class ArtifactWriter {
+        @Nonnull
+        private final DataOutputStream out;
+        /**
+         * Each distinct string, in order of first use, with its index in the string table
+         */
+        @Nonnull
+        private final Map<String, Integer> strings = Maps.newLinkedHashMap();
+
+        private ArtifactWriter(@Nonnull final DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeArtifact(@Nonnull final TestMatrixArtifact artifact) throws IOException {
+            final Audit audit = artifact.getAudit();
+            out.writeBoolean(audit != null);
+            if (audit != null) {
+                out.writeLong(audit.getVersion());
+                out.writeLong(audit.getUpdated());
+                writeString(audit.getUpdatedBy());
+            }
+
+            writeVarInt(out, artifact.getTests().size());
+            for (final Map.Entry<String, ConsumableTestDefinition> entry : artifact.getTests().entrySet()) {
+                writeString(entry.getKey());
+                writeTestDefinition(entry.getValue());
+            }
+        }
+
+        private void writeTestDefinition(@Nonnull final ConsumableTestDefinition testDefinition) throws IOException {
+            writeSignedVarLong(out, testDefinition.getVersion());
+            writeString(testDefinition.getSalt());
+            writeString(testDefinition.getRule());
+            final TestType testType = testDefinition.getTestType();
+            writeString(testType == null ? null : testType.name());
+            final HashAlgorithm hashAlgorithm = testDefinition.getHashAlgorithm();
+            writeString(hashAlgorithm == null ? null : hashAlgorithm.name());
+            writeString(testDefinition.getDescription());
+            writeMap(testDefinition.getConstants());
+
+            writeVarInt(out, testDefinition.getBuckets().size());
+            for (final TestBucket bucket : testDefinition.getBuckets()) {
+                writeString(bucket.getName());
+                writeSignedVarLong(out, bucket.getValue());
+                writeString(bucket.getDescription());
+                writePayload(bucket.getPayload());
+            }
+
+            writeVarInt(out, testDefinition.getAllocations().size());
+            for (final Allocation allocation : testDefinition.getAllocations()) {
+                writeString(allocation.getRule());
+                writeVarInt(out, allocation.getRanges().size());
+                for (final Range range : allocation.getRanges()) {
+                    writeSignedVarLong(out, range.getBucketValue());
+                    out.writeDouble(range.getLength());
+                }
+            }
+        }
+
+        private void writePayload(@Nullable final Payload payload) throws IOException {
+            if (payload == null) {
+                out.writeByte(PAYLOAD_NONE);
+            } else if (payload.getDoubleValue() != null) {
+                out.writeByte(PAYLOAD_DOUBLE_VALUE);
+                out.writeDouble(payload.getDoubleValue());
+            } else if (payload.getDoubleArray() != null) {
+                out.writeByte(PAYLOAD_DOUBLE_ARRAY);
+                writeVarInt(out, payload.getDoubleArray().length);
+                for (final Double value : payload.getDoubleArray()) {
+                    writeValue(value);
+                }
+            } else if (payload.getLongValue() != null) {
+                out.writeByte(PAYLOAD_LONG_VALUE);
+                writeSignedVarLong(out, payload.getLongValue());
+            } else if (payload.getLongArray() != null) {
+                out.writeByte(PAYLOAD_LONG_ARRAY);
+                writeVarInt(out, payload.getLongArray().length);
+                for (final Long value : payload.getLongArray()) {
+                    writeValue(value);
+                }
+            } else if (payload.getStringValue() != null) {
+                out.writeByte(PAYLOAD_STRING_VALUE);
+                writeString(payload.getStringValue());
+            } else if (payload.getStringArray() != null) {
+                out.writeByte(PAYLOAD_STRING_ARRAY);
+                writeVarInt(out, payload.getStringArray().length);
+                for (final String value : payload.getStringArray()) {
+                    writeString(value);
+                }
+            } else {
+                out.writeByte(PAYLOAD_EMPTY);
+            }
+        }
+
+        private void writeMap(@Nonnull final Map<String, ?> map) throws IOException {
+            writeVarInt(out, map.size());
+            for (final Map.Entry<String, ?> entry : map.entrySet()) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeValue(@Nullable final Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(VALUE_NULL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+            } else if (value instanceof Integer) {
+                out.writeByte(VALUE_INTEGER);
+                writeSignedVarLong(out, (Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(VALUE_LONG);
+                writeSignedVarLong(out, (Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(VALUE_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof String) {
+                out.writeByte(VALUE_STRING);
+                writeString((String) value);
+            } else if (value instanceof List) {
+                final List<?> list = (List<?>) value;
+                out.writeByte(VALUE_LIST);
+                writeVarInt(out, list.size());
+                for (final Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Map) {
+                out.writeByte(VALUE_MAP);
+                writeMap((Map<String, ?>) value);
+            } else {
+                out.writeByte(VALUE_JSON);
+                writeString(OBJECT_MAPPER.writeValueAsString(value));
+            }
+        }
+
+        /**
+         * Writes the string's index in the string table plus one, or 0 for null
+         */
+        private void writeString(@Nullable final String string) throws IOException {
+            if (string == null) {
+                writeVarInt(out, 0);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.put(string, index);
+            }
+            writeVarInt(out, index + 1);
+        }
+    }
+
+    private static class ArtifactReader {
+        @Nonnull
+        private final ByteBuffer in;
+        @Nonnull
+        private final String[] strings;
+
+        private ArtifactReader(@Nonnull final ByteBuffer in) {
+            this.in = in;
+            this.strings = new String[readCount()];
+            final byte[] buffer = in.hasArray() ? null : new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                final int length = readCount();
+                if (in.hasArray()) {
+                    strings[i] = new String(in.array(), in.arrayOffset() + in.position(), length, Charsets.UTF_8);
+                    in.position(in.position() + length);
+                } else {
+                    final byte[] bytes = length <= buffer.length ? buffer : new byte[length];
+                    in.get(bytes, 0, length);
+                    strings[i] = new String(bytes, 0, length, Charsets.UTF_8);
+                }
+            }
+        }
+
+        @Nonnull
+        private TestMatrixArtifact readArtifact() throws IOException {
+            final TestMatrixArtifact artifact = new TestMatrixArtifact();
+            if (in.get() != 0) {
+                final Audit audit = new Audit();
+                audit.setVersion(in.getLong());
+                audit.setUpdated(in.getLong());
+                audit.setUpdatedBy(readString());
+                artifact.setAudit(audit);
+            }
+
+            final int testCount = readCount();
+            final Map<String, ConsumableTestDefinition> tests = Maps.newLinkedHashMap();
+            for (int i = 0; i < testCount; i++) {
+                final String testName = readString();
+                tests.put(testName, readTestDefinition());
+            }
+            artifact.setTests(tests);
+            return artifact;
+        }
+
+        @Nonnull
+        private ConsumableTestDefinition readTestDefinition() throws IOException {
+            final ConsumableTestDefinition testDefinition = new ConsumableTestDefinition();
+            testDefinition.setVersion((int) readSignedVarLong());
+            testDefinition.setSalt(readString());
+            testDefinition.setRule(readString());
+            final String testType = readString();
+            if (testType != null) {
+                testDefinition.setTestType(TestType.valueOf(testType));
+            }
+            final String hashAlgorithm = readString();
+            if (hashAlgorithm != null) {
+                testDefinition.setHashAlgorithm(HashAlgorithm.valueOf(hashAlgorithm));
+            }
+            testDefinition.setDescription(readString());
+            testDefinition.setConstants(readMap());
+
+            final int bucketCount = readCount();
+            final List<TestBucket> buckets = Lists.newArrayListWithCapacity(bucketCount);
+            for (int i = 0; i < bucketCount; i++) {
+                final TestBucket bucket = new TestBucket();
+                bucket.setName(readString());
+                bucket.setValue((int) readSignedVarLong());
+                bucket.setDescription(readString());
+                bucket.setPayload(readPayload());
+                buckets.add(bucket);
+            }
+            testDefinition.setBuckets(buckets);
+
+            final int allocationCount = readCount();
+            final List<Allocation> allocations = Lists.newArrayListWithCapacity(allocationCount);
+            for (int i = 0; i < allocationCount; i++) {
+                final String rule = readString();
+                final int rangeCount = readCount();
+                final List<Range> ranges = Lists.newArrayListWithCapacity(rangeCount);
+                for (int j = 0; j < rangeCount; j++) {
+                    final Range range = new Range();
+                    range.setBucketValue((int) readSignedVarLong());
+                    range.setLength(in.getDouble());
+                    ranges.add(range);
+                }
+                allocations.add(new Allocation(rule, ranges));
+            }
+            testDefinition.setAllocations(allocations);
+            return testDefinition;
+        }
+
+        @Nullable
+        private Payload readPayload() throws IOException {
+            final int type = in.get();
+            if (type == PAYLOAD_NONE) {
+                return null;
+            }
+            final Payload payload = new Payload();
+            switch (type) {
+                case PAYLOAD_EMPTY:
+                    break;
+                case PAYLOAD_DOUBLE_VALUE:
+                    payload.setDoubleValue(in.getDouble());
+                    break;
+                case PAYLOAD_DOUBLE_ARRAY: {
+                    final Double[] values = new Double[readCount()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = (Double) readValue();
+                    }
+                    payload.setDoubleArray(values);
+                    break;
+                }
+                case PAYLOAD_LONG_VALUE:
+                    payload.setLongValue(readSignedVarLong());
+                    break;
+                case PAYLOAD_LONG_ARRAY: {
+                    final Long[] values = new Long[readCount()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = (Long) readValue();
+                    }
+                    payload.setLongArray(values);
+                    break;
+                }
+                case PAYLOAD_STRING_VALUE:
+                    payload.setStringValue(readString());
+                    break;
+                case PAYLOAD_STRING_ARRAY: {
+                    final String[] values = new String[readCount()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = readString();
+                    }
+                    payload.setStringArray(values);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown payload type " + type);
+            }
+            return payload;
+        }
+
+        @Nonnull
+        private Map<String, Object> readMap() throws IOException {
+            final int size = readCount();
+            final Map<String, Object> map = Maps.newLinkedHashMap();
+            for (int i = 0; i < size; i++) {
+                final String key = readString();
+                map.put(key, readValue());
+            }
+            return map;
+        }
+
+        @Nullable
+        private Object readValue() throws IOException {
+            final int tag = in.get();
+            switch (tag) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_TRUE:
+                    return Boolean.TRUE;
+                case VALUE_FALSE:
+                    return Boolean.FALSE;
+                case VALUE_INTEGER:
+                    return (int) readSignedVarLong();
+                case VALUE_LONG:
+                    return readSignedVarLong();
+                case VALUE_DOUBLE:
+                    return in.getDouble();
+                case VALUE_STRING:
+                    return readString();
+                case VALUE_LIST: {
+                    final int size = readCount();
+                    final List<Object> list = Lists.newArrayListWithCapacity(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case VALUE_MAP:
+                    return readMap();
+                case VALUE_JSON:
+                    return OBJECT_MAPPER.readValue(readString(), Object.class);
+                default:
+                    throw new IOException("Unknown value type " + tag);
+            }
+        }
+
+        @Nullable
+        private String readString() {
+            final int index = readVarInt();
+            return index == 0 ? null : strings[index - 1];
+        }
+
+        private int readVarInt() {
+            final long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Malformed variable-length number " + value);
+            }
+            return (int) value;
+        }
+
+        /**
+         * Reads the number of elements or bytes that follow, each of which takes at least a byte
+         */
+        private int readCount() {
+            final int count = readVarInt();
+            if (count > in.remaining()) {
+                throw new IllegalArgumentException("Count " + count + " is more than the " + in.remaining() + " bytes remaining");
+            }
+            return count;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed variable-length number");
+        }
+
+        private long readSignedVarLong() {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
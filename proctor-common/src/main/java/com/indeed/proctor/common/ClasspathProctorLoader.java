@@ -6,8 +6,6 @@ import javax.annotation.Nonnull;
 import javax.el.FunctionMapper;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 
 /**
  * Support class for loading a test matrix artifact from a JSON file
@@ -34,7 +32,6 @@ public class ClasspathProctorLoader extends AbstractJsonProctorLoader {
         if (resourceAsStream == null) {
             throw new MissingTestMatrixException("Could not load proctor test matrix from classpath: " + resourcePath);
         }
-        final Reader reader = new InputStreamReader(resourceAsStream);
-        return loadJsonTestMatrix(reader);
+        return loadJsonTestMatrix(resourceAsStream);
     }
 }
@@ -0,0 +1,121 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads through to a shared map, which is never modified, until it is first modified itself; it then copies the shared
+ * map, in the same order, and works on the copy from then on. This lets {@link ProctorResult} hand out maps that
+ * callers can still modify, as they could when each result had its own, without copying for callers that only read.
+ *
+ * Not thread-safe, like the maps it stands in for.
+ */
+class CopyOnWriteMap<K, V> extends AbstractMap<K, V> {
+    @Nonnull
+    private Map<K, V> map;
+    private boolean copied = false;
+
+    CopyOnWriteMap(@Nonnull final Map<K, V> shared) {
+        this.map = shared;
+    }
+
+    /**
+     * @return true once this has been modified, and no longer reads through to the shared map
+     */
+    boolean isCopied() {
+        return copied;
+    }
+
+    @Nonnull
+    private Map<K, V> modifiable() {
+        if (!copied) {
+            map = Maps.newLinkedHashMap(map);
+            copied = true;
+        }
+        return map;
+    }
+
+    @Override
+    public V get(final Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        return modifiable().put(key, value);
+    }
+
+    @Override
+    public V remove(final Object key) {
+        return modifiable().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        modifiable().clear();
+    }
+
+    @Nonnull
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                final Map<K, V> iterated = map;
+                final Iterator<Entry<K, V>> entries = iterated.entrySet().iterator();
+                return new Iterator<Entry<K, V>>() {
+                    private K last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        final Entry<K, V> entry = entries.next();
+                        last = entry.getKey();
+                        return new SimpleEntry<K, V>(entry) {
+                            @Override
+                            public V setValue(final V value) {
+                                CopyOnWriteMap.this.put(getKey(), value);
+                                return super.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (iterated == map && copied) {
+                            entries.remove();
+                        } else {
+                            //  iterating the shared map, which copying leaves alone
+                            CopyOnWriteMap.this.remove(last);
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        };
+    }
+}
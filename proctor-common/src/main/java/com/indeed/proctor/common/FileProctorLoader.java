@@ -1,32 +1,114 @@
 package com.indeed.proctor.common;
 
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
 import com.indeed.proctor.common.model.TestMatrixArtifact;
+import org.apache.log4j.Logger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.el.FunctionMapper;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
- * Support class for loading a test matrix artifact from a JSON file
+ * Support class for loading a test matrix artifact from a JSON (or {@link BinaryArtifacts binary}) file
  * @author ketan
  */
 public class FileProctorLoader extends AbstractJsonProctorLoader {
+    private static final Logger LOGGER = Logger.getLogger(FileProctorLoader.class);
+
+    /**
+     * Modification times can be this coarse, so a file changed again this soon after being loaded can keep the same
+     * modification time (and size); its stamp is only trusted once it is older than this.
+     */
+    private static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
     @Nonnull
     private final File inputFile;
+    @Nullable
+    private Timer watchTimer = null;
 
     public FileProctorLoader(@Nonnull final ProctorSpecification specification, @Nonnull final String inputFile, @Nonnull final FunctionMapper functionMapper) {
         this(specification, new File(inputFile), functionMapper);
     }
 
     public FileProctorLoader(@Nonnull final ProctorSpecification specification, @Nonnull final File inputFile, @Nonnull final FunctionMapper functionMapper) {
-        super(FileProctorLoader.class, specification, functionMapper);
+        this(FileProctorLoader.class, specification, inputFile, functionMapper);
+    }
+
+    protected FileProctorLoader(@Nonnull final Class<?> cls, @Nonnull final ProctorSpecification specification, @Nonnull final File inputFile, @Nonnull final FunctionMapper functionMapper) {
+        super(cls, specification, functionMapper);
         this.inputFile = inputFile;
     }
 
+    /**
+     * Watches the file, so that a new matrix is loaded as soon as the file is replaced, rather than at the next
+     * scheduled run. The file's modification time and size are checked every checkIntervalMillis, which reads nothing;
+     * once they have changed and then stayed the same for debounceMillis, so that a file being written is not loaded
+     * halfway, the matrix is loaded immediately, as by a scheduled {@link #run()}: on the watching thread, or on the
+     * {@link #setReloadExecutor reload executor} if one is set. Either way the load counts towards
+     * {@link #isLoadedDataSuccessfullyRecently()}.
+     *
+     * The loader should still be scheduled as usual, as a fallback for changes that do not show in the modification
+     * time and size; since unchanged files are not read again, those runs are cheap.
+     */
+    public synchronized void startWatching(final long checkIntervalMillis, final long debounceMillis) {
+        Preconditions.checkState(watchTimer == null, "Already watching %s", inputFile);
+        Preconditions.checkArgument(checkIntervalMillis > 0, "checkIntervalMillis must be positive");
+        watchTimer = new Timer(getClass().getSimpleName() + "-watch-" + inputFile.getName(), true);
+        watchTimer.schedule(new FileWatcher(debounceMillis), checkIntervalMillis, checkIntervalMillis);
+    }
+
+    public synchronized void stopWatching() {
+        if (watchTimer != null) {
+            watchTimer.cancel();
+            watchTimer = null;
+        }
+    }
+
+    @Nonnull
+    private String getFileStamp() {
+        //  a missing file has a modification time of 0
+        return inputFile.lastModified() + ":" + inputFile.length();
+    }
+
+    private class FileWatcher extends TimerTask {
+        private final long debounceMillis;
+        @Nonnull
+        private String lastStamp = getFileStamp();
+        private long lastChangeMillis = 0;
+        private boolean changed = false;
+
+        private FileWatcher(final long debounceMillis) {
+            this.debounceMillis = debounceMillis;
+        }
+
+        @Override
+        public void run() {
+            final String stamp = getFileStamp();
+            final long now = System.currentTimeMillis();
+            if (! stamp.equals(lastStamp)) {
+                lastStamp = stamp;
+                lastChangeMillis = now;
+                changed = true;
+            } else if (changed && now - lastChangeMillis >= debounceMillis) {
+                changed = false;
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Loading " + inputFile + " because it changed");
+                }
+                try {
+                    FileProctorLoader.this.run();
+                } catch (@Nonnull final Throwable t) {
+                    //  keep watching; an exception would cancel the timer
+                    LOGGER.error("Unable to load changed " + inputFile, t);
+                }
+            }
+        }
+    }
+
     @Nonnull
     @Override
     protected String getSource() {
@@ -42,7 +124,21 @@ public class FileProctorLoader extends AbstractJsonProctorLoader {
         if (! inputFile.canRead()) {
             throw new MissingTestMatrixException("Cannot read input file " + inputFile);
         }
-        final Reader reader = new FileReader(inputFile);
-        return loadJsonTestMatrix(reader);
+        final long lastModified = inputFile.lastModified();
+        final boolean recentlyModified = System.currentTimeMillis() - lastModified < MODIFICATION_TIME_GRANULARITY_MILLIS;
+        if (isUnchanged(recentlyModified ? null : lastModified + ":" + inputFile.length())) {
+            return UNCHANGED_TEST_MATRIX;
+        }
+        return readTestMatrix(inputFile);
+    }
+
+    /**
+     * Reads and parses the file, once it is known to exist and to have changed
+     * @return the matrix, or {@link #UNCHANGED_TEST_MATRIX}
+     */
+    @Nullable
+    protected TestMatrixArtifact readTestMatrix(@Nonnull final File file) throws IOException {
+        //  read straight into an array of the file's size, rather than through a growing buffer
+        return loadJsonTestMatrix(Files.toByteArray(file));
     }
 }
@@ -12,6 +12,7 @@ import javax.annotation.Nullable;
 import javax.el.FunctionMapper;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 
 public class JsonProctorLoaderFactory {
@@ -27,6 +28,13 @@ public class JsonProctorLoaderFactory {
 
     private FunctionMapper functionMapper = RuleEvaluator.FUNCTION_MAPPER;
 
+    private int maxRetainedFileContentsSize = Integer.MAX_VALUE;
+
+    private boolean memoryMapFile = false;
+
+    @Nullable
+    private Executor reloadExecutor = null;
+
     @SuppressWarnings("UnusedDeclaration")
     public void setClassResourcePath(@Nullable final String classResourcePath) {
         this.classResourcePath = classResourcePath;
@@ -67,6 +75,30 @@ public class JsonProctorLoaderFactory {
         this.functionMapper = functionMapper;
     }
 
+    /**
+     * @see AbstractJsonProctorLoader#setMaxRetainedFileContentsSize(int)
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMaxRetainedFileContentsSize(final int maxRetainedFileContentsSize) {
+        this.maxRetainedFileContentsSize = maxRetainedFileContentsSize;
+    }
+
+    /**
+     * @param memoryMapFile true to load {@link #setFilePath(String) the file} with a {@link MappedFileProctorLoader}
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMemoryMapFile(final boolean memoryMapFile) {
+        this.memoryMapFile = memoryMapFile;
+    }
+
+    /**
+     * @see AbstractProctorLoader#setReloadExecutor(Executor)
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setReloadExecutor(@Nullable final Executor reloadExecutor) {
+        this.reloadExecutor = reloadExecutor;
+    }
+
     @Nonnull
     public AbstractJsonProctorLoader getLoader() {
         if ((classResourcePath == null) == (filePath == null)) {
@@ -74,9 +106,16 @@ public class JsonProctorLoaderFactory {
         }
 
         final ProctorSpecification specification = Preconditions.checkNotNull(this._specification, "Missing specification");
+        final AbstractJsonProctorLoader loader;
         if (classResourcePath != null) {
-            return new ClasspathProctorLoader(specification, classResourcePath, functionMapper);
+            loader = new ClasspathProctorLoader(specification, classResourcePath, functionMapper);
+        } else if (memoryMapFile) {
+            loader = new MappedFileProctorLoader(specification, filePath, functionMapper);
+        } else {
+            loader = new FileProctorLoader(specification, filePath, functionMapper);
         }
-        return new FileProctorLoader(specification, filePath, functionMapper);
+        loader.setMaxRetainedFileContentsSize(maxRetainedFileContentsSize);
+        loader.setReloadExecutor(reloadExecutor);
+        return loader;
     }
 }
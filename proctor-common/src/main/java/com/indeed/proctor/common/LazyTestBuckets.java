@@ -0,0 +1,64 @@
+package com.indeed.proctor.common;
+
+import com.indeed.proctor.common.model.TestBucket;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * Determines the buckets of a {@link ProctorResult} from {@link Proctor#determineTestGroupsLazily(Identifiers, Map, Map)}:
+ * each test the first time it is looked up, remembering it for the rest of the request.
+ *
+ * Synchronized, since the rule evaluation context it holds is not thread-safe.
+ */
+class LazyTestBuckets {
+    @Nonnull
+    private final Proctor.ResolvedTestSubset tests;
+    @Nonnull
+    private final Identifiers identifiers;
+    @Nonnull
+    private final RuleEvaluationContext ruleContext;
+    @Nonnull
+    private final Map<String, Integer> forceGroups;
+    /**
+     * The result's buckets, filled in as they are determined
+     */
+    @Nonnull
+    private final TestBucket[] buckets;
+    @Nonnull
+    private final boolean[] determined;
+
+    LazyTestBuckets(
+            @Nonnull final Proctor.ResolvedTestSubset tests,
+            @Nonnull final Identifiers identifiers,
+            @Nonnull final RuleEvaluationContext ruleContext,
+            @Nonnull final Map<String, Integer> forceGroups,
+            @Nonnull final TestBucket[] buckets
+    ) {
+        this.tests = tests;
+        this.identifiers = identifiers;
+        this.ruleContext = ruleContext;
+        this.forceGroups = forceGroups;
+        this.buckets = buckets;
+        this.determined = new boolean[buckets.length];
+    }
+
+    @Nullable
+    synchronized TestBucket get(final int index) {
+        if (!determined[index]) {
+            buckets[index] = Proctor.chooseTestBucket(tests.getTestIndex().getTestName(index), tests.getTestChooser(index), identifiers, ruleContext, forceGroups);
+            determined[index] = true;
+        }
+        return buckets[index];
+    }
+
+    /**
+     * Determines every test that has not been looked up yet.
+     */
+    synchronized void determineAll() {
+        for (int i = 0; i < buckets.length; i++) {
+            get(i);
+        }
+    }
+}
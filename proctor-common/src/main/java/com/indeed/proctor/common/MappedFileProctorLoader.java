@@ -0,0 +1,44 @@
+package com.indeed.proctor.common;
+
+import com.indeed.proctor.common.model.TestMatrixArtifact;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.el.FunctionMapper;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Loads a test matrix artifact from a JSON (or {@link BinaryArtifacts binary}) file by memory-mapping it and parsing
+ * the mapped contents in place, rather than copying the whole file onto the heap first. Best suited to large
+ * artifacts on local disk.
+ *
+ * The mapping is not kept after the matrix is parsed, but Java offers no way to unmap it explicitly: it is released
+ * when the buffer is collected.
+ */
+public class MappedFileProctorLoader extends FileProctorLoader {
+    public MappedFileProctorLoader(@Nonnull final ProctorSpecification specification, @Nonnull final String inputFile, @Nonnull final FunctionMapper functionMapper) {
+        this(specification, new File(inputFile), functionMapper);
+    }
+
+    public MappedFileProctorLoader(@Nonnull final ProctorSpecification specification, @Nonnull final File inputFile, @Nonnull final FunctionMapper functionMapper) {
+        super(MappedFileProctorLoader.class, specification, inputFile, functionMapper);
+    }
+
+    @Nullable
+    @Override
+    protected TestMatrixArtifact readTestMatrix(@Nonnull final File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final MappedByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return loadJsonTestMatrix(contents);
+        } finally {
+            //  the mapping stays valid after the channel is closed
+            randomAccessFile.close();
+        }
+    }
+}
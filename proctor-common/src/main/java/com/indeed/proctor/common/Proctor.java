@@ -1,13 +1,19 @@
 package com.indeed.proctor.common;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.indeed.util.varexport.VarExporter;
+import com.indeed.proctor.common.model.Allocation;
 import com.indeed.proctor.common.model.Audit;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.Payload;
+import com.indeed.proctor.common.model.Range;
 import com.indeed.proctor.common.model.TestBucket;
 import com.indeed.proctor.common.model.TestMatrixArtifact;
 import com.indeed.proctor.common.model.TestType;
@@ -16,11 +22,18 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.el.ExpressionFactory;
 import javax.el.FunctionMapper;
 
@@ -36,26 +49,141 @@ public class Proctor {
      */
     @Nonnull
     public static Proctor construct(@Nonnull final TestMatrixArtifact matrix, ProctorLoadResult loadResult, FunctionMapper functionMapper) {
+        return construct(matrix, loadResult, functionMapper, null);
+    }
+
+    /**
+     * Like {@link #construct(TestMatrixArtifact, ProctorLoadResult, FunctionMapper)}, but tests whose definitions are
+     * the same as in <code>previous</code> reuse its compiled rules rather than compiling them again, so reloading a
+     * matrix in which few tests changed is cheap.
+     * @param previous the {@link Proctor} this one replaces, or null
+     */
+    @Nonnull
+    public static Proctor construct(
+            @Nonnull final TestMatrixArtifact matrix,
+            final ProctorLoadResult loadResult,
+            final FunctionMapper functionMapper,
+            @Nullable final Proctor previous
+    ) {
         final ExpressionFactory expressionFactory = RuleEvaluator.EXPRESSION_FACTORY;
 
         final Map<String, TestChooser<?>> testChoosers = Maps.newLinkedHashMap();
         final Map<String, Integer> versions = Maps.newLinkedHashMap();
+        //  shared by all tests so that a rule used by several tests is evaluated once per call to determineTestGroups
+        final RuleInterner ruleInterner = new RuleInterner();
+        //  tests linked through a shared '&' salt hash the same identifier the same way; hash once per group
+        final Map<List<?>, Integer> hashGroups = Maps.newHashMap();
+        //  compiled rules are bound to the function mapper, so they can only be reused with the same one
+        final Map<String, TestChooser<?>> previousChoosers = (previous != null && previous.functionMapper == functionMapper)
+                ? previous.testChoosers
+                : Collections.<String, TestChooser<?>>emptyMap();
 
         for (final Entry<String, ConsumableTestDefinition> entry : matrix.getTests().entrySet()) {
             final String testName = entry.getKey();
             final ConsumableTestDefinition testDefinition = entry.getValue();
             final TestType testType = testDefinition.getTestType();
+            final TestChooser<?> previousChooser = previousChoosers.get(testName);
+            final boolean unchanged = previousChooser != null && isSameTestDefinition(previousChooser.getTestDefinition(), testDefinition);
             final TestChooser<?> testChooser;
             if (TestType.RANDOM.equals(testType)) {
-                testChooser = new RandomTestChooser(expressionFactory, functionMapper, testName, testDefinition);
+                if (unchanged) {
+                    testChooser = ((RandomTestChooser) previousChooser).rebind(ruleInterner);
+                } else {
+                    testChooser = new RandomTestChooser(expressionFactory, functionMapper, testName, testDefinition, ruleInterner);
+                }
             } else {
-                testChooser = new StandardTestChooser(expressionFactory, functionMapper, testName, testDefinition);
+                final int hashGroup = getHashGroup(hashGroups, testDefinition);
+                if (unchanged) {
+                    testChooser = ((StandardTestChooser) previousChooser).rebind(ruleInterner, hashGroup);
+                } else {
+                    testChooser = new StandardTestChooser(expressionFactory, functionMapper, testName, testDefinition, ruleInterner, hashGroup);
+                }
             }
             testChoosers.put(testName, testChooser);
             versions.put(testName, testDefinition.getVersion());
         }
 
-        return new Proctor(matrix, loadResult, testChoosers);
+        return new Proctor(matrix, loadResult, functionMapper, testChoosers, ruleInterner.size(), hashGroups.size());
+    }
+
+    /**
+     * @return true if the two definitions have the same version and are identical in every field, so that a chooser
+     * built for one works for the other
+     */
+    @VisibleForTesting
+    static boolean isSameTestDefinition(@Nonnull final ConsumableTestDefinition previous, @Nonnull final ConsumableTestDefinition current) {
+        if (previous == current) {
+            return true;
+        }
+        if (previous.getVersion() != current.getVersion()
+                || previous.getTestType() != current.getTestType()
+                || !Objects.equal(previous.getSalt(), current.getSalt())
+                || previous.getHashAlgorithm() != current.getHashAlgorithm()
+                || !Objects.equal(previous.getRule(), current.getRule())
+                || !Objects.equal(previous.getDescription(), current.getDescription())
+                || !previous.getConstants().equals(current.getConstants())
+                || previous.getBuckets().size() != current.getBuckets().size()
+                || previous.getAllocations().size() != current.getAllocations().size()) {
+            return false;
+        }
+        for (int i = 0; i < previous.getBuckets().size(); i++) {
+            final TestBucket previousBucket = previous.getBuckets().get(i);
+            final TestBucket currentBucket = current.getBuckets().get(i);
+            //  TestBucket.equals only compares names
+            if (previousBucket.getValue() != currentBucket.getValue()
+                    || !Objects.equal(previousBucket.getName(), currentBucket.getName())
+                    || !Objects.equal(previousBucket.getDescription(), currentBucket.getDescription())
+                    || !isSamePayload(previousBucket.getPayload(), currentBucket.getPayload())) {
+                return false;
+            }
+        }
+        for (int i = 0; i < previous.getAllocations().size(); i++) {
+            final Allocation previousAllocation = previous.getAllocations().get(i);
+            final Allocation currentAllocation = current.getAllocations().get(i);
+            if (!Objects.equal(previousAllocation.getRule(), currentAllocation.getRule())
+                    || previousAllocation.getRanges().size() != currentAllocation.getRanges().size()) {
+                return false;
+            }
+            for (int j = 0; j < previousAllocation.getRanges().size(); j++) {
+                final Range previousRange = previousAllocation.getRanges().get(j);
+                final Range currentRange = currentAllocation.getRanges().get(j);
+                if (previousRange.getBucketValue() != currentRange.getBucketValue()
+                        || Double.compare(previousRange.getLength(), currentRange.getLength()) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSamePayload(@Nullable final Payload previous, @Nullable final Payload current) {
+        if (previous == null || current == null) {
+            return previous == current;
+        }
+        return Objects.equal(previous.getDoubleValue(), current.getDoubleValue())
+                && Arrays.equals(previous.getDoubleArray(), current.getDoubleArray())
+                && Objects.equal(previous.getLongValue(), current.getLongValue())
+                && Arrays.equals(previous.getLongArray(), current.getLongArray())
+                && Objects.equal(previous.getStringValue(), current.getStringValue())
+                && Arrays.equals(previous.getStringArray(), current.getStringArray());
+    }
+
+    /**
+     * @return the index of the group of tests whose identifiers always hash to the same value as this test's, or -1 if
+     * the test's hash depends on its name
+     */
+    private static int getHashGroup(@Nonnull final Map<List<?>, Integer> hashGroups, @Nonnull final ConsumableTestDefinition testDefinition) {
+        if (!StandardTestChooser.isSaltOnly(testDefinition)) {
+            return -1;
+        }
+        final List<?> key = Arrays.asList(testDefinition.getTestType(), testDefinition.getSalt(), testDefinition.getHashAlgorithm());
+        final Integer existing = hashGroups.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final int hashGroup = hashGroups.size();
+        hashGroups.put(key, hashGroup);
+        return hashGroup;
     }
 
     @Nonnull
@@ -80,21 +208,50 @@ public class Proctor {
     private final ProctorLoadResult loadResult;
     @Nonnull
     private final Map<String, TestChooser<?>> testChoosers;
+    /**
+     * Number of distinct rules interned by the test choosers; sizes the per-call rule result cache
+     */
+    private final int ruleCount;
+    /**
+     * Number of groups of linked tests sharing a hash; sizes the per-call hash cache
+     */
+    private final int hashGroupCount;
+    /**
+     * The function mapper the rules were compiled with, if known
+     */
+    @Nullable
+    private final FunctionMapper functionMapper;
 
-    private final Map<String, ConsumableTestDefinition> testDefinitions = Maps.newLinkedHashMap();
+    /**
+     * Every test, in matrix order
+     */
+    @Nonnull
+    private final ResolvedTestSubset allTests;
 
     @VisibleForTesting
     Proctor(
             final TestMatrixArtifact matrix,
             final ProctorLoadResult loadResult,
             @Nonnull Map<String, TestChooser<?>> testChoosers
+    ) {
+        this(matrix, loadResult, null, testChoosers, 0, 0);
+    }
+
+    private Proctor(
+            final TestMatrixArtifact matrix,
+            final ProctorLoadResult loadResult,
+            @Nullable final FunctionMapper functionMapper,
+            @Nonnull Map<String, TestChooser<?>> testChoosers,
+            final int ruleCount,
+            final int hashGroupCount
     ) {
         this.matrix = matrix;
         this.loadResult = loadResult;
+        this.functionMapper = functionMapper;
         this.testChoosers = testChoosers;
-        for (final Entry<String, TestChooser<?>> entry : testChoosers.entrySet()) {
-            this.testDefinitions.put(entry.getKey(), entry.getValue().getTestDefinition());
-        }
+        this.ruleCount = ruleCount;
+        this.hashGroupCount = hashGroupCount;
+        this.allTests = new ResolvedTestSubset(this, testChoosers);
 
         VarExporter.forNamespace(Proctor.class.getSimpleName()).includeInGlobal().export(this, "");
         VarExporter.forNamespace(DetailedExport.class.getSimpleName()).export(new DetailedExport(), "");  //  intentionally not in global
@@ -106,6 +263,56 @@ public class Proctor {
          */
     }
 
+    /**
+     * The test choosers of one {@link Proctor} selected by a {@link TestSubset}, numbered by a {@link TestIndex}
+     */
+    static final class ResolvedTestSubset {
+        @Nonnull
+        private final Proctor proctor;
+        @Nonnull
+        private final TestIndex testIndex;
+        @Nonnull
+        private final TestChooser<?>[] testChoosers;
+
+        private ResolvedTestSubset(@Nonnull final Proctor proctor, @Nonnull final Map<String, TestChooser<?>> testChoosers) {
+            this.proctor = proctor;
+            final Map<String, ConsumableTestDefinition> testDefinitions = Maps.newLinkedHashMap();
+            for (final Entry<String, TestChooser<?>> entry : testChoosers.entrySet()) {
+                testDefinitions.put(entry.getKey(), entry.getValue().getTestDefinition());
+            }
+            this.testIndex = new TestIndex(testDefinitions);
+            this.testChoosers = testChoosers.values().toArray(new TestChooser<?>[testChoosers.size()]);
+        }
+
+        @Nonnull
+        TestIndex getTestIndex() {
+            return testIndex;
+        }
+
+        @Nonnull
+        TestChooser<?> getTestChooser(final int index) {
+            return testChoosers[index];
+        }
+    }
+
+    @Nonnull
+    private ResolvedTestSubset resolve(@Nonnull final TestSubset subset) {
+        final ResolvedTestSubset resolved = subset.getResolved();
+        if (resolved != null && resolved.proctor == this) {
+            return resolved;
+        }
+        //  keep matrix order, so the result is ordered as an unrestricted one would be
+        final Map<String, TestChooser<?>> selectedChoosers = Maps.newLinkedHashMap();
+        for (final Entry<String, TestChooser<?>> entry : testChoosers.entrySet()) {
+            if (subset.getTestNames().contains(entry.getKey())) {
+                selectedChoosers.put(entry.getKey(), entry.getValue());
+            }
+        }
+        final ResolvedTestSubset newlyResolved = new ResolvedTestSubset(this, selectedChoosers);
+        subset.setResolved(newlyResolved);
+        return newlyResolved;
+    }
+
     /**
      * Determine which test buckets apply to a particular client.
      * @param testType
@@ -135,46 +342,196 @@ public class Proctor {
      */
     @Nonnull
     public ProctorResult determineTestGroups(@Nonnull final Identifiers identifiers, @Nonnull final Map<String, Object> inputContext, @Nonnull final Map<String, Integer> forceGroups) {
-        final Map<String, TestBucket> testGroups = Maps.newLinkedHashMap();
-        for (final Entry<String, TestChooser<?>> entry : testChoosers.entrySet()) {
-            final String testName = entry.getKey();
-            final Integer forceGroupBucket = forceGroups.get(testName);
-            final TestChooser<?> testChooser = entry.getValue();
-            final String identifier;
-            if (testChooser instanceof StandardTestChooser) {
-                final TestType testType = testChooser.getTestDefinition().getTestType();
-                identifier = identifiers.getIdentifier(testType);
-                if (identifier == null) {
-                    continue;
-                }
-            } else {
-                if (! identifiers.isRandomEnabled()) {
-                    continue;
-                }
-                identifier = null;
+        //  one context for every rule of every test, rather than one per rule evaluation
+        final RuleEvaluationContext ruleContext = new RuleEvaluationContext(inputContext, ruleCount, hashGroupCount);
+        return determineTestGroups(allTests, identifiers, ruleContext, forceGroups, getMatrixVersion());
+    }
+
+    /**
+     * Determines the groups of every test for one synthetic request of {@link ProctorWarmUp}, discarding them
+     * @return the number of rules that failed to evaluate, which are counted rather than logged
+     */
+    int determineTestGroupsForWarmUp(@Nonnull final Identifiers identifiers, @Nonnull final Map<String, Object> inputContext) {
+        final RuleEvaluationContext ruleContext = new RuleEvaluationContext(inputContext, ruleCount, hashGroupCount);
+        ruleContext.countRuleFailures();
+        determineTestGroups(allTests, identifiers, ruleContext, Collections.<String, Integer>emptyMap(), getMatrixVersion());
+        return ruleContext.getRuleFailures();
+    }
+
+    /**
+     * Like {@link #determineTestGroups(Identifiers, java.util.Map, java.util.Map)}, but only determines the buckets of
+     * the tests in <code>tests</code>; the others are neither evaluated nor included in the result.
+     */
+    @Nonnull
+    public ProctorResult determineTestGroups(
+            @Nonnull final TestSubset tests,
+            @Nonnull final Identifiers identifiers,
+            @Nonnull final Map<String, Object> inputContext,
+            @Nonnull final Map<String, Integer> forceGroups
+    ) {
+        final RuleEvaluationContext ruleContext = new RuleEvaluationContext(inputContext, ruleCount, hashGroupCount);
+        return determineTestGroups(resolve(tests), identifiers, ruleContext, forceGroups, getMatrixVersion());
+    }
+
+    /**
+     * Determine which test buckets apply to each of many clients, e.g. in an offline job. Equivalent to calling
+     * {@link #determineTestGroups(Identifiers, java.util.Map, java.util.Map)} for each request, but the rule evaluation
+     * context, its buffers and the identifier hashes are shared across the batch rather than rebuilt for every request.
+     * @return the results, in the same order as the requests
+     */
+    @Nonnull
+    public List<ProctorResult> determineTestGroups(@Nonnull final List<ProctorRequest> requests) {
+        final List<ProctorResult> results = Lists.newArrayListWithCapacity(requests.size());
+        if (requests.isEmpty()) {
+            return results;
+        }
+        final long matrixVersion = getMatrixVersion();
+        final RuleEvaluationContext ruleContext = new RuleEvaluationContext(requests.get(0).getContext(), ruleCount, hashGroupCount);
+        for (final ProctorRequest request : requests) {
+            ruleContext.reset(request.getContext());
+            results.add(determineTestGroups(allTests, request.getIdentifiers(), ruleContext, request.getForceGroups(), matrixVersion));
+        }
+        return results;
+    }
+
+    /**
+     * Like {@link #determineTestGroups(Identifiers, java.util.Map, java.util.Map)}, but each test's bucket is only
+     * determined the first time it is looked up in {@link ProctorResult#getBuckets()}, and then remembered. Iterating
+     * over the buckets, or calling {@link ProctorResult#materialize()}, determines all of the remaining tests.
+     *
+     * Until then, the result refers to <code>inputContext</code>, which must not be changed.
+     */
+    @Nonnull
+    public ProctorResult determineTestGroupsLazily(@Nonnull final Identifiers identifiers, @Nonnull final Map<String, Object> inputContext, @Nonnull final Map<String, Integer> forceGroups) {
+        return determineTestGroupsLazily(allTests, identifiers, inputContext, forceGroups);
+    }
+
+    /**
+     * Like {@link #determineTestGroupsLazily(Identifiers, java.util.Map, java.util.Map)}, but only for the tests in
+     * <code>tests</code>.
+     */
+    @Nonnull
+    public ProctorResult determineTestGroupsLazily(
+            @Nonnull final TestSubset tests,
+            @Nonnull final Identifiers identifiers,
+            @Nonnull final Map<String, Object> inputContext,
+            @Nonnull final Map<String, Integer> forceGroups
+    ) {
+        return determineTestGroupsLazily(resolve(tests), identifiers, inputContext, forceGroups);
+    }
+
+    @Nonnull
+    private ProctorResult determineTestGroupsLazily(
+            @Nonnull final ResolvedTestSubset tests,
+            @Nonnull final Identifiers identifiers,
+            @Nonnull final Map<String, Object> inputContext,
+            @Nonnull final Map<String, Integer> forceGroups
+    ) {
+        final RuleEvaluationContext ruleContext = new RuleEvaluationContext(inputContext, ruleCount, hashGroupCount);
+        final TestBucket[] buckets = new TestBucket[tests.testChoosers.length];
+        final LazyTestBuckets lazyBuckets = new LazyTestBuckets(tests, identifiers, ruleContext, forceGroups, buckets);
+        return new ProctorResult(getMatrixVersion(), tests.testIndex, buckets, lazyBuckets);
+    }
+
+    /**
+     * Like {@link #determineTestGroups(java.util.List)}, but splits the requests into batches of at most
+     * <code>batchSize</code> that are run in parallel by <code>executor</code>.
+     * @return the results, in the same order as the requests
+     * @throws InterruptedException if interrupted while waiting for the batches; unfinished batches are cancelled
+     */
+    @Nonnull
+    public List<ProctorResult> determineTestGroups(
+            @Nonnull final List<ProctorRequest> requests,
+            @Nonnull final ExecutorService executor,
+            final int batchSize
+    ) throws InterruptedException {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive: %s", batchSize);
+        final List<Future<List<ProctorResult>>> batches = Lists.newArrayListWithCapacity((requests.size() + batchSize - 1) / batchSize);
+        try {
+            for (int start = 0; start < requests.size(); start += batchSize) {
+                final List<ProctorRequest> batch = requests.subList(start, Math.min(requests.size(), start + batchSize));
+                batches.add(executor.submit(new Callable<List<ProctorResult>>() {
+                    @Override
+                    public List<ProctorResult> call() {
+                        return determineTestGroups(batch);
+                    }
+                }));
             }
-            if (forceGroupBucket != null) {
-                final TestBucket forcedTestBucket = testChooser.getTestBucket(forceGroupBucket);
-                if (forcedTestBucket != null) {
-                    testGroups.put(testName, forcedTestBucket);
-                    continue;
+
+            final List<ProctorResult> results = Lists.newArrayListWithCapacity(requests.size());
+            for (final Future<List<ProctorResult>> batch : batches) {
+                try {
+                    results.addAll(batch.get());
+                } catch (final ExecutionException e) {
+                    throw Throwables.propagate(e.getCause());
                 }
             }
-            final TestBucket testBucket;
+            return results;
+        } finally {
+            for (final Future<List<ProctorResult>> batch : batches) {
+                batch.cancel(true);
+            }
+        }
+    }
+
+    @Nonnull
+    private ProctorResult determineTestGroups(
+            @Nonnull final ResolvedTestSubset tests,
+            @Nonnull final Identifiers identifiers,
+            @Nonnull final RuleEvaluationContext ruleContext,
+            @Nonnull final Map<String, Integer> forceGroups,
+            final long matrixVersion
+    ) {
+        final TestBucket[] testGroups = new TestBucket[tests.testChoosers.length];
+        for (int i = 0; i < testGroups.length; i++) {
+            testGroups[i] = chooseTestBucket(tests.testIndex.getTestName(i), tests.testChoosers[i], identifiers, ruleContext, forceGroups);
+        }
+
+        return new ProctorResult(matrixVersion, tests.testIndex, testGroups, null);
+    }
+
+    /**
+     * @return the bucket of a single test, or null if the test does not apply to the client
+     */
+    @Nullable
+    static TestBucket chooseTestBucket(
+            @Nonnull final String testName,
+            @Nonnull final TestChooser<?> testChooser,
+            @Nonnull final Identifiers identifiers,
+            @Nonnull final RuleEvaluationContext ruleContext,
+            @Nonnull final Map<String, Integer> forceGroups
+    ) {
+        final String identifier;
+        if (testChooser instanceof StandardTestChooser) {
+            final TestType testType = testChooser.getTestDefinition().getTestType();
+            identifier = identifiers.getIdentifier(testType);
             if (identifier == null) {
-                testBucket = ((RandomTestChooser) testChooser).choose(null, inputContext);
-            } else {
-                testBucket = ((StandardTestChooser) testChooser).choose(identifier, inputContext);
+                return null;
+            }
+        } else {
+            if (! identifiers.isRandomEnabled()) {
+                return null;
             }
-            if (testBucket != null) {
-                testGroups.put(testName, testBucket);
-                testChooser.getTestDefinition();
+            identifier = null;
+        }
+        final Integer forceGroupBucket = forceGroups.get(testName);
+        if (forceGroupBucket != null) {
+            final TestBucket forcedTestBucket = testChooser.getTestBucket(forceGroupBucket);
+            if (forcedTestBucket != null) {
+                return forcedTestBucket;
             }
         }
+        if (identifier == null) {
+            return ((RandomTestChooser) testChooser).choose(null, ruleContext);
+        } else {
+            return ((StandardTestChooser) testChooser).choose(identifier, ruleContext);
+        }
+    }
 
+    private long getMatrixVersion() {
         // TODO Can we make getAudit nonnull?
         final Audit audit = Preconditions.checkNotNull(matrix.getAudit(), "Missing audit");
-        return new ProctorResult(audit.getVersion(), testGroups, testDefinitions);
+        return audit.getVersion();
     }
 
     @SuppressWarnings("UnusedDeclaration") // TODO Needed?
@@ -182,6 +539,12 @@ public class Proctor {
         return matrix.getTests().get(name);
     }
 
+    @VisibleForTesting
+    @Nullable
+    TestChooser<?> getTestChooser(@Nonnull final String name) {
+        return testChoosers.get(name);
+    }
+
     public ProctorLoadResult getLoadResult() {
         return loadResult;
     }
@@ -0,0 +1,47 @@
+package com.indeed.proctor.common;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The arguments of one call to {@link Proctor#determineTestGroups(Identifiers, Map, Map)}, for determining the test
+ * groups of many clients at once with {@link Proctor#determineTestGroups(java.util.List)}.
+ */
+public class ProctorRequest {
+    @Nonnull
+    private final Identifiers identifiers;
+    @Nonnull
+    private final Map<String, Object> context;
+    @Nonnull
+    private final Map<String, Integer> forceGroups;
+
+    public ProctorRequest(@Nonnull final Identifiers identifiers, @Nonnull final Map<String, Object> context) {
+        this(identifiers, context, Collections.<String, Integer>emptyMap());
+    }
+
+    public ProctorRequest(
+            @Nonnull final Identifiers identifiers,
+            @Nonnull final Map<String, Object> context,
+            @Nonnull final Map<String, Integer> forceGroups
+    ) {
+        this.identifiers = identifiers;
+        this.context = context;
+        this.forceGroups = forceGroups;
+    }
+
+    @Nonnull
+    public Identifiers getIdentifiers() {
+        return identifiers;
+    }
+
+    @Nonnull
+    public Map<String, Object> getContext() {
+        return context;
+    }
+
+    @Nonnull
+    public Map<String, Integer> getForceGroups() {
+        return forceGroups;
+    }
+}
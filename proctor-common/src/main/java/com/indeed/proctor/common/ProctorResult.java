@@ -3,16 +3,26 @@ package com.indeed.proctor.common;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
 import com.indeed.proctor.common.model.TestBucket;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import com.google.common.collect.Maps;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Return value from {@link Proctor#determineTestGroups(Identifiers, java.util.Map, java.util.Map)}
+ *
+ * Results from a {@link Proctor} are compact: a single array of buckets, numbered by the {@link TestIndex} shared by
+ * every result of that {@link Proctor}, with {@link #getBuckets()} a view of it. The maps they return can still be
+ * modified, as when each result had its own; they are only copied when they are.
  * @author ketan
  *
  */
@@ -20,10 +30,25 @@ public class ProctorResult {
     public static final ProctorResult EMPTY = new ProctorResult(-1, Collections.<String, TestBucket>emptyMap(), Collections.<String, ConsumableTestDefinition>emptyMap());
 
     private final long matrixVersion;
-    @Nonnull
-    private final Map<String, TestBucket> buckets;
+    /**
+     * The buckets given to the public constructor, or a view of {@link #bucketsByIndex} created when first needed
+     */
+    @Nullable
+    private volatile Map<String, TestBucket> buckets;
     @Nonnull
     private final Map<String, ConsumableTestDefinition> testDefinitions;
+    @Nullable
+    private final TestIndex testIndex;
+    /**
+     * The bucket of each test in {@link #testIndex}, or null if the test does not apply
+     */
+    @Nullable
+    private final TestBucket[] bucketsByIndex;
+    /**
+     * Determines the buckets of {@link #bucketsByIndex} on demand; null if they are all determined
+     */
+    @Nullable
+    private volatile LazyTestBuckets lazyBuckets;
 
     public ProctorResult(
             final long matrixVersion,
@@ -33,6 +58,26 @@ public class ProctorResult {
         this.matrixVersion = matrixVersion;
         this.buckets = buckets;
         this.testDefinitions = testDefinitions;
+        this.testIndex = null;
+        this.bucketsByIndex = null;
+        this.lazyBuckets = null;
+    }
+
+    /**
+     * @param lazyBuckets determines the buckets still missing from <code>bucketsByIndex</code>, or null if there are none
+     */
+    ProctorResult(
+            final long matrixVersion,
+            @Nonnull final TestIndex testIndex,
+            @Nonnull final TestBucket[] bucketsByIndex,
+            @Nullable final LazyTestBuckets lazyBuckets
+    ) {
+        this.matrixVersion = matrixVersion;
+        this.buckets = null;
+        this.testDefinitions = testIndex.getTestDefinitions();
+        this.testIndex = testIndex;
+        this.bucketsByIndex = bucketsByIndex;
+        this.lazyBuckets = lazyBuckets;
     }
 
     @SuppressWarnings("UnusedDeclaration")
@@ -40,9 +85,98 @@ public class ProctorResult {
         return matrixVersion;
     }
 
+    /**
+     * @return the bucket of each test that applies, in matrix order; the same map on every call, which callers may
+     * modify
+     */
     @Nonnull
     public Map<String, TestBucket> getBuckets() {
-        return buckets;
+        Map<String, TestBucket> result = buckets;
+        if (result == null) {
+            synchronized (this) {
+                //  callers may modify it, so every call must get the same one
+                result = buckets;
+                if (result == null) {
+                    result = new CopyOnWriteMap<String, TestBucket>(new BucketsView());
+                    buckets = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the numbering of the tests used by {@link #getBucket(int)}, or null if this result was not built by a
+     * {@link Proctor}
+     */
+    @Nullable
+    public TestIndex getTestIndex() {
+        return testIndex;
+    }
+
+    /**
+     * @return the bucket of the test numbered <code>index</code> by {@link #getTestIndex()}, or null if it does not
+     * apply; reflects any change made through {@link #getBuckets()}
+     */
+    @Nullable
+    public TestBucket getBucket(final int index) {
+        if (bucketsByIndex == null) {
+            throw new IllegalStateException("Result has no test index");
+        }
+        final Map<String, TestBucket> modified = getModifiedBuckets();
+        if (modified != null) {
+            return modified.get(testIndex.getTestName(index));
+        }
+        final LazyTestBuckets lazy = lazyBuckets;
+        if (lazy != null) {
+            return lazy.get(index);
+        }
+        return bucketsByIndex[index];
+    }
+
+    /**
+     * @return true if some buckets are still to be determined, as they are looked up; see
+     * {@link Proctor#determineTestGroupsLazily(Identifiers, Map, Map)}
+     */
+    public boolean isLazy() {
+        return lazyBuckets != null;
+    }
+
+    /**
+     * @return a copy of the bucket of each test numbered by {@link #getTestIndex()}, null where the test does not
+     * apply; or null if this result has no test index, or if its buckets have been changed through
+     * {@link #getBuckets()}, which can add tests that have no number. Determines every bucket of a lazy result.
+     */
+    @Nullable
+    public TestBucket[] copyBucketsByIndex() {
+        if (bucketsByIndex == null || getModifiedBuckets() != null) {
+            return null;
+        }
+        materialize();
+        return bucketsByIndex.clone();
+    }
+
+    /**
+     * @return the map returned by {@link #getBuckets()} if a caller has changed it, so that {@link #bucketsByIndex} is
+     * out of date, or null
+     */
+    @Nullable
+    private Map<String, TestBucket> getModifiedBuckets() {
+        final Map<String, TestBucket> current = buckets;
+        return (current instanceof CopyOnWriteMap && ((CopyOnWriteMap<?, ?>) current).isCopied()) ? current : null;
+    }
+
+    /**
+     * Determines the buckets of every test that a lazy result (see
+     * {@link Proctor#determineTestGroupsLazily(Identifiers, Map, Map)}) has not determined yet, e.g. before logging
+     * them all. Does nothing for other results.
+     */
+    public void materialize() {
+        final LazyTestBuckets lazy = lazyBuckets;
+        if (lazy != null) {
+            lazy.determineAll();
+            lazyBuckets = null;
+        }
     }
 
     @Nonnull
@@ -50,8 +184,14 @@ public class ProctorResult {
         return testDefinitions;
     }
 
+    /**
+     * @return the version of each test; a new map on every call, which callers may modify
+     */
     @Nonnull
     public Map<String, Integer> getTestVersions() {
+        if (testIndex != null) {
+            return new CopyOnWriteMap<String, Integer>(testIndex.getTestVersions());
+        }
         // TODO ImmutableMap?
         final Map<String, Integer> testVersions = Maps.newHashMap();
         for (final Entry<String, ConsumableTestDefinition> entry : testDefinitions.entrySet()) {
@@ -59,4 +199,79 @@ public class ProctorResult {
         }
         return testVersions;
     }
+
+    /**
+     * Unmodifiable map view of {@link #bucketsByIndex}, in matrix order, wrapped in a {@link CopyOnWriteMap} for callers. Looking up a single test only determines
+     * that test; anything else determines all of them first.
+     */
+    private class BucketsView extends AbstractMap<String, TestBucket> {
+        @Override
+        public TestBucket get(final Object testName) {
+            final int index = testIndex.indexOf(testName);
+            return (index < 0) ? null : getBucket(index);
+        }
+
+        @Override
+        public boolean containsKey(final Object testName) {
+            return get(testName) != null;
+        }
+
+        @Override
+        public int size() {
+            materialize();
+            int size = 0;
+            for (final TestBucket bucket : bucketsByIndex) {
+                if (bucket != null) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Nonnull
+        @Override
+        public Set<Entry<String, TestBucket>> entrySet() {
+            materialize();
+            return new AbstractSet<Entry<String, TestBucket>>() {
+                @Override
+                public Iterator<Entry<String, TestBucket>> iterator() {
+                    return new Iterator<Entry<String, TestBucket>>() {
+                        private int next = skipMissing(0);
+
+                        private int skipMissing(int index) {
+                            while (index < bucketsByIndex.length && bucketsByIndex[index] == null) {
+                                index++;
+                            }
+                            return index;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < bucketsByIndex.length;
+                        }
+
+                        @Override
+                        public Entry<String, TestBucket> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            final Entry<String, TestBucket> entry = Maps.immutableEntry(testIndex.getTestName(next), bucketsByIndex[next]);
+                            next = skipMissing(next + 1);
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return BucketsView.this.size();
+                }
+            };
+        }
+    }
 }
@@ -163,7 +163,9 @@ public abstract class ProctorUtils {
         constants.putAll(td.getConstants());
         constants.putAll(specialConstants);
 
-        return new ConsumableTestDefinition(td.getVersion(), rule, td.getTestType(), td.getSalt(), td.getBuckets(), allocations, constants, td.getDescription());
+        final ConsumableTestDefinition ctd = new ConsumableTestDefinition(td.getVersion(), rule, td.getTestType(), td.getSalt(), td.getBuckets(), allocations, constants, td.getDescription());
+        ctd.setHashAlgorithm(td.getHashAlgorithm());
+        return ctd;
     }
 
     public static ProctorSpecification readSpecification(final File inputFile) {
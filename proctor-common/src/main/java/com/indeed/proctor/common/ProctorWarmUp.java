@@ -0,0 +1,125 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.Maps;
+import com.indeed.proctor.common.model.TestType;
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Runs every test of a newly constructed {@link Proctor} against synthetic requests before it is used, so that the
+ * first real requests do not pay for cold code paths, lazily compiled rules and the EL resolvers' reflection caches.
+ *
+ * The synthetic contexts are built from the types of the specification's provided context: primitives, their
+ * wrappers and strings get varying values, JDK collection types are empty, and every other type is left null.
+ */
+public class ProctorWarmUp {
+    private static final Logger LOGGER = Logger.getLogger(ProctorWarmUp.class);
+
+    private ProctorWarmUp() {
+    }
+
+    /**
+     * Determines the groups of every test for <code>iterations</code> synthetic requests; the results are discarded.
+     * Rules that fail on the synthetic values, e.g. because they call methods on context objects left null, are counted
+     * and summarized in one line rather than logged one by one.
+     */
+    public static void warmUp(@Nonnull final Proctor proctor, @Nonnull final Map<String, String> providedContext, final int iterations) {
+        final Map<TestType, String> identifierMap = new EnumMap<TestType, String>(TestType.class);
+        int ruleFailures = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (final TestType testType : TestType.values()) {
+                identifierMap.put(testType, "warmup" + i);
+            }
+            ruleFailures += proctor.determineTestGroupsForWarmUp(new Identifiers(identifierMap, true), createContext(providedContext, i));
+        }
+        if (ruleFailures > 0) {
+            LOGGER.info("Ignored " + ruleFailures + " rule evaluation failures while warming up with " + iterations + " synthetic requests");
+        }
+    }
+
+    /**
+     * @param iteration varies the values, so that different rule outcomes are exercised
+     */
+    @Nonnull
+    static Map<String, Object> createContext(@Nonnull final Map<String, String> providedContext, final int iteration) {
+        final Map<String, Object> context = Maps.newHashMapWithExpectedSize(providedContext.size());
+        for (final Map.Entry<String, String> entry : providedContext.entrySet()) {
+            context.put(entry.getKey(), createValue(entry.getValue(), iteration));
+        }
+        return context;
+    }
+
+    /**
+     * @param type the name of the type, as written in the specification (e.g. "int", "String", "com.example.Foo")
+     */
+    @Nullable
+    static Object createValue(@Nonnull final String type, final int iteration) {
+        //  generic arguments do not matter to EL
+        final int genericStart = type.indexOf('<');
+        final String rawType = (genericStart < 0 ? type : type.substring(0, genericStart)).trim();
+        final String simpleName = rawType.startsWith("java.lang.") ? rawType.substring("java.lang.".length()) : rawType;
+
+        if ("boolean".equals(simpleName) || "Boolean".equals(simpleName)) {
+            return iteration % 2 == 0;
+        } else if ("int".equals(simpleName) || "Integer".equals(simpleName)) {
+            return iteration;
+        } else if ("long".equals(simpleName) || "Long".equals(simpleName)) {
+            return (long) iteration;
+        } else if ("double".equals(simpleName) || "Double".equals(simpleName)) {
+            return (double) iteration;
+        } else if ("float".equals(simpleName) || "Float".equals(simpleName)) {
+            return (float) iteration;
+        } else if ("short".equals(simpleName) || "Short".equals(simpleName)) {
+            return (short) iteration;
+        } else if ("byte".equals(simpleName) || "Byte".equals(simpleName)) {
+            return (byte) iteration;
+        } else if ("char".equals(simpleName) || "Character".equals(simpleName)) {
+            return (char) ('a' + iteration % 26);
+        } else if ("String".equals(simpleName)) {
+            return iteration % 2 == 0 ? "" : "warmup" + iteration;
+        }
+
+        final Class<?> cls = loadJdkClass(rawType);
+        if (cls == null) {
+            return null;
+        } else if (Iterable.class.isAssignableFrom(cls) && cls.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<Object>();
+        } else if (Iterable.class.isAssignableFrom(cls) && cls.isAssignableFrom(HashSet.class)) {
+            return new HashSet<Object>();
+        } else if (Map.class.isAssignableFrom(cls) && cls.isAssignableFrom(HashMap.class)) {
+            return new HashMap<Object, Object>();
+        }
+        //  never instantiate other types: their constructors and static initializers could do anything
+        return null;
+    }
+
+    /**
+     * Resolves only JDK types, without initializing them; simple names are looked up in java.lang and java.util
+     */
+    @Nullable
+    private static Class<?> loadJdkClass(@Nonnull final String name) {
+        final String[] candidates = name.indexOf('.') < 0
+                ? new String[] { "java.lang." + name, "java.util." + name }
+                : new String[] { name };
+        for (final String candidate : candidates) {
+            if (! candidate.startsWith("java.")) {
+                continue;
+            }
+            try {
+                return Class.forName(candidate, false, ProctorWarmUp.class.getClassLoader());
+            } catch (@Nonnull final ClassNotFoundException e) {
+                //  try the next one
+            } catch (@Nonnull final LinkageError e) {
+                LOGGER.debug("Unable to load " + candidate + " for warming up", e);
+            }
+        }
+        return null;
+    }
+}
@@ -12,6 +12,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -21,26 +22,90 @@ import javax.el.FunctionMapper;
 import com.google.common.annotations.VisibleForTesting;
 
 /**
- * Embodies the logic for a single purely random test, including applicability rule and distribution.  {@link #choose(Void, java.util.Map)} is the only useful entry point.
+ * Embodies the logic for a single purely random test, including applicability rule and distribution.  {@link #choose(Void, RuleEvaluationContext)} is the only useful entry point.
  * @author ketan
  */
 @VisibleForTesting
 class RandomTestChooser implements TestChooser<Void> {
+    /**
+     * Spacing of the seeds of successive threads' random sources (the golden gamma used by splittable generators)
+     */
+    private static final long THREAD_SEED_INCREMENT = 0x9e3779b97f4a7c15L;
+    private static final double RANDOM_RANGE = 1L << 31;
+
+    /**
+     * One source per thread so that concurrent requests do not contend on a shared seed. Shared by all choosers that
+     * were not given a seed, so that reloading a test matrix does not leave per-chooser entries behind on every thread.
+     */
     @Nonnull
-    private final Random random;
+    private static final ThreadLocal<Random> SHARED_RANDOM = createThreadRandom(System.nanoTime());
+
+    /**
+     * {@link #SHARED_RANDOM}, or for a seeded chooser its own sources, so that it is deterministic on one thread
+     */
+    @Nonnull
+    private final ThreadLocal<Random> random;
     @Nonnull
     private final TestRangeSelector testRangeSelector;
     @Nonnull
     private final List<Allocation> allocations;
+    /**
+     * For each allocation, the exclusive upper bounds of all ranges but the last, scaled to the non-negative ints
+     */
+    @Nonnull
+    private final long[][] cutoffs;
 
     public RandomTestChooser(final ExpressionFactory expressionFactory, final FunctionMapper functionMapper, final String testName, @Nonnull final ConsumableTestDefinition testDefinition) {
-        this(System.nanoTime(), expressionFactory, functionMapper, testName, testDefinition);
+        this(expressionFactory, functionMapper, testName, testDefinition, null);
     }
 
     public RandomTestChooser(final long seed, final ExpressionFactory expressionFactory, final FunctionMapper functionMapper, final String testName, @Nonnull final ConsumableTestDefinition testDefinition) {
-        testRangeSelector = new TestRangeSelector(expressionFactory, functionMapper, testName, testDefinition);
-        allocations = testDefinition.getAllocations();
-        random = new Random(seed);
+        this(createThreadRandom(seed), new TestRangeSelector(new RuleEvaluator(expressionFactory, functionMapper, testDefinition.getConstants()), testName, testDefinition, null));
+    }
+
+    RandomTestChooser(final ExpressionFactory expressionFactory, final FunctionMapper functionMapper, final String testName, @Nonnull final ConsumableTestDefinition testDefinition, @Nullable final RuleInterner ruleInterner) {
+        this(SHARED_RANDOM, new TestRangeSelector(new RuleEvaluator(expressionFactory, functionMapper, testDefinition.getConstants()), testName, testDefinition, ruleInterner));
+    }
+
+    private RandomTestChooser(@Nonnull final ThreadLocal<Random> random, @Nonnull final TestRangeSelector testRangeSelector) {
+        this.random = random;
+        this.testRangeSelector = testRangeSelector;
+        allocations = testRangeSelector.getTestDefinition().getAllocations();
+
+        cutoffs = new long[allocations.size()][];
+        for (int i = 0; i < allocations.size(); i++) {
+            final List<Range> ranges = allocations.get(i).getRanges();
+            cutoffs[i] = new long[Math.max(0, ranges.size() - 1)];
+            double total = 0;
+            for (int j = 0; j < cutoffs[i].length; j++) {
+                total += ranges.get(j).getLength();
+                cutoffs[i][j] = (long) (total * RANDOM_RANGE);
+            }
+        }
+    }
+
+    /**
+     * @return sources seeded from the seed and the order in which threads first use them
+     */
+    @Nonnull
+    private static ThreadLocal<Random> createThreadRandom(final long seed) {
+        final AtomicLong threadSeed = new AtomicLong(seed);
+        return new ThreadLocal<Random>() {
+            @Nonnull
+            @Override
+            protected Random initialValue() {
+                return new Random(threadSeed.getAndAdd(THREAD_SEED_INCREMENT));
+            }
+        };
+    }
+
+    /**
+     * @return a chooser for the same, unchanged test in a new {@link Proctor}, sharing this one's compiled rules and
+     * random sources
+     */
+    @Nonnull
+    RandomTestChooser rebind(@Nullable final RuleInterner ruleInterner) {
+        return new RandomTestChooser(random, new TestRangeSelector(testRangeSelector, ruleInterner));
     }
 
     @Nonnull
@@ -89,46 +154,49 @@ class RandomTestChooser implements TestChooser<Void> {
     }
 
     @Nullable
-    @Override
     public TestBucket choose(@Nullable Void identifier, @Nonnull Map<String, Object> values) {
-        final int matchingRuleIndex = testRangeSelector.findMatchingRule(values);
+        return choose(identifier, new RuleEvaluationContext(values));
+    }
+
+    @Nullable
+    @Override
+    public TestBucket choose(@Nullable Void identifier, @Nonnull RuleEvaluationContext context) {
+        final int matchingRuleIndex = testRangeSelector.findMatchingRule(context);
         if (matchingRuleIndex < 0) {
             return null;
         }
-        // TODO Reimplement
-        //noinspection deprecation
         return allocateRandomGroup(matchingRuleIndex);
     }
 
-    /**
-     * @deprecated Temporary implementation; this should be more like {@link StandardTestChooser}, with the cutoffs etc. set in the constructor.
-     */
     TestBucket allocateRandomGroup(final int matchingRuleIndex) {
-        final TestBucket[] matchingBucketRange = testRangeSelector.getBucketRange(matchingRuleIndex);
-        final Allocation allocation = allocations.get(matchingRuleIndex);
-        final List<Range> ranges = allocation.getRanges();
-
-        final double nextDouble = random.nextDouble();
-        double current = 0;
-
-        for (final Range range : ranges) {
-            final double max = current + range.getLength();
-            if (nextDouble < max) {
-                final int matchingBucketValue = range.getBucketValue();
-                return getBucketForValue(matchingBucketValue, matchingBucketRange);
+        final long[] matchingCutoffs = cutoffs[matchingRuleIndex];
+        //  uniform over [0, 2^31)
+        final long value = random.get().nextInt() >>> 1;
+
+        //  first range whose upper bound is above the value; empty ranges are never chosen
+        int low = 0;
+        int high = matchingCutoffs.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (value < matchingCutoffs[middle]) {
+                high = middle;
+            } else {
+                low = middle + 1;
             }
-            current = max;
         }
-        //  fallback because I don't trust double math to always do the right thing
-        return getBucketForValue(ranges.get(ranges.size() - 1).getBucketValue(), matchingBucketRange);
+        //  past the last cutoff, including any double rounding shortfall, is the last range
+        return getBucketForRange(low, allocations.get(matchingRuleIndex).getRanges(), testRangeSelector.getBucketRange(matchingRuleIndex));
     }
 
-    static TestBucket getBucketForValue(final int matchingBucketValue, @Nonnull final TestBucket[] matchingBucketRange) {
-        for (TestBucket bucket : matchingBucketRange) {
-            if (matchingBucketValue == bucket.getValue()) {
-                return bucket;
-            }
+    /**
+     * @param matchingBucketRange the bucket of each range, as resolved by {@link TestRangeSelector}
+     */
+    @Nonnull
+    static TestBucket getBucketForRange(final int rangeIndex, @Nonnull final List<Range> ranges, @Nonnull final TestBucket[] matchingBucketRange) {
+        final TestBucket bucket = matchingBucketRange[rangeIndex];
+        if (bucket == null) {
+            throw new IllegalStateException("Unable to find a bucket with value " + ranges.get(rangeIndex).getBucketValue());
         }
-        throw new IllegalStateException("Unable to find a bucket with value " + matchingBucketValue);
+        return bucket;
     }
 }
@@ -0,0 +1,202 @@
+package com.indeed.proctor.common;
+
+import com.indeed.proctor.common.el.ContextVariableMapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.ExpressionFactory;
+import javax.el.FunctionMapper;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The context variables of a single call to {@link Proctor#determineTestGroups(Identifiers, Map, Map)}, prepared once
+ * and shared by every rule of every test evaluated during that call, along with the rule results and identifier hashes
+ * that tests can share.
+ *
+ * Not thread-safe; each call builds its own, and each batch of calls reuses one per thread (see {@link #reset(Map)}).
+ */
+public class RuleEvaluationContext {
+    @Nonnull
+    private final ExpressionFactory expressionFactory;
+    @Nonnull
+    private Map<String, Object> values;
+    @Nonnull
+    private VariableMapper variableMapper;
+    @Nonnull
+    private final ELContext elContext;
+    /**
+     * Results of interned rules already evaluated in this context, indexed by rule id: 0 if not yet evaluated,
+     * otherwise {@link #RULE_TRUE} or {@link #RULE_FALSE}
+     */
+    @Nonnull
+    private final byte[] ruleResults;
+    private static final byte RULE_TRUE = 1;
+    private static final byte RULE_FALSE = 2;
+    /**
+     * Last identifier hashed for each group of linked tests, and its hash
+     */
+    @Nonnull
+    private final String[] hashedIdentifiers;
+    @Nonnull
+    private final int[] hashes;
+    /**
+     * Whether rules that fail to evaluate are counted in {@link #ruleFailures} instead of logged
+     */
+    private boolean countingRuleFailures = false;
+    private int ruleFailures = 0;
+
+    public RuleEvaluationContext(@Nonnull final Map<String, Object> values) {
+        this(values, 0, 0);
+    }
+
+    /**
+     * @param ruleCount the number of rules interned by the {@link Proctor} this context will be used with
+     * @param hashGroupCount the number of groups of linked tests in that {@link Proctor}
+     */
+    RuleEvaluationContext(@Nonnull final Map<String, Object> values, final int ruleCount, final int hashGroupCount) {
+        this(RuleEvaluator.EXPRESSION_FACTORY, RuleEvaluator.FUNCTION_MAPPER, values, ruleCount, hashGroupCount);
+    }
+
+    public RuleEvaluationContext(
+            @Nonnull final ExpressionFactory expressionFactory,
+            @Nonnull final FunctionMapper functionMapper,
+            @Nonnull final Map<String, Object> values
+    ) {
+        this(expressionFactory, functionMapper, values, 0, 0);
+    }
+
+    private RuleEvaluationContext(
+            @Nonnull final ExpressionFactory expressionFactory,
+            @Nonnull final FunctionMapper functionMapper,
+            @Nonnull final Map<String, Object> values,
+            final int ruleCount,
+            final int hashGroupCount
+    ) {
+        this.expressionFactory = expressionFactory;
+        this.values = values;
+        this.variableMapper = createVariableMapper(expressionFactory, values);
+        this.ruleResults = new byte[ruleCount];
+        this.hashedIdentifiers = new String[hashGroupCount];
+        this.hashes = new int[hashGroupCount];
+
+        this.elContext = new ELContext() {
+            @Nonnull
+            @Override
+            public ELResolver getELResolver() {
+                return RuleEvaluator.STANDARD_EL_RESOLVER;
+            }
+
+            @Nonnull
+            @Override
+            public FunctionMapper getFunctionMapper() {
+                return functionMapper;
+            }
+
+            @Nonnull
+            @Override
+            public VariableMapper getVariableMapper() {
+                return variableMapper;
+            }
+        };
+    }
+
+    @Nonnull
+    private static VariableMapper createVariableMapper(@Nonnull final ExpressionFactory expressionFactory, @Nonnull final Map<String, Object> values) {
+        //  test constants are bound when rules are compiled, so only the context values are needed here
+        return new ContextVariableMapper(expressionFactory, Collections.<String, ValueExpression>emptyMap(), values);
+    }
+
+    /**
+     * Prepares this context for the next call in a batch: switches to the new context values and forgets the rule
+     * results of the previous call, keeping the buffers. Hashes are keyed by identifier, so they stay valid.
+     */
+    void reset(@Nonnull final Map<String, Object> values) {
+        this.values = values;
+        this.variableMapper = createVariableMapper(expressionFactory, values);
+        Arrays.fill(ruleResults, (byte) 0);
+    }
+
+    @Nonnull
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    /**
+     * The {@link ELContext} that compiled rules are evaluated in.
+     */
+    @Nonnull
+    ELContext getELContext() {
+        return elContext;
+    }
+
+    /**
+     * @return the result of the interned rule if it has already been evaluated in this context, otherwise null
+     */
+    @Nullable
+    Boolean getRuleResult(final int ruleId) {
+        if (ruleId < 0 || ruleId >= ruleResults.length) {
+            return null;
+        }
+        switch (ruleResults[ruleId]) {
+            case RULE_TRUE:
+                return Boolean.TRUE;
+            case RULE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    void setRuleResult(final int ruleId, final boolean result) {
+        if (ruleId >= 0 && ruleId < ruleResults.length) {
+            ruleResults[ruleId] = result ? RULE_TRUE : RULE_FALSE;
+        }
+    }
+
+    /**
+     * Makes rules that fail to evaluate in this context be counted rather than logged, for synthetic requests on which
+     * failures are expected
+     */
+    void countRuleFailures() {
+        countingRuleFailures = true;
+    }
+
+    /**
+     * Records that a rule failed to evaluate
+     * @return true if the failure should be logged
+     */
+    boolean ruleFailed() {
+        if (countingRuleFailures) {
+            ruleFailures++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of rules that failed to evaluate while failures were being counted
+     */
+    int getRuleFailures() {
+        return ruleFailures;
+    }
+
+    /**
+     * @return the hash of <code>identifier</code>, computed at most once in this context for each group of linked tests
+     */
+    int hash(final int hashGroup, @Nonnull final String identifier, @Nonnull final StandardTestChooser.Hasher hasher) {
+        if (hashGroup < 0 || hashGroup >= hashes.length) {
+            return hasher.hash(identifier);
+        }
+        if (!identifier.equals(hashedIdentifiers[hashGroup])) {
+            hashes[hashGroup] = hasher.hash(identifier);
+            hashedIdentifiers[hashGroup] = identifier;
+        }
+        return hashes[hashGroup];
+    }
+}
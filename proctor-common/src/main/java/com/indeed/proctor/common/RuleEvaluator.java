@@ -2,13 +2,16 @@ package com.indeed.proctor.common;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Strings;
+import com.indeed.proctor.common.el.ContextVariableMapper;
+import com.indeed.proctor.common.el.DeferredVariableMapper;
 import com.indeed.proctor.common.el.LibraryFunctionMapperBuilder;
-import com.indeed.proctor.common.el.MulticontextReadOnlyVariableMapper;
+import com.indeed.proctor.common.el.RuleCompiler;
 import org.apache.el.ExpressionFactoryImpl;
 import org.apache.log4j.Logger;
 import org.apache.taglibs.standard.functions.Functions;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.el.ArrayELResolver;
 import javax.el.BeanELResolver;
 import javax.el.CompositeELResolver;
@@ -21,6 +24,7 @@ import javax.el.MapELResolver;
 import javax.el.ValueExpression;
 import javax.el.VariableMapper;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A nice tidy packaging of javax.el stuff.
@@ -36,6 +40,17 @@ public class RuleEvaluator {
 
     static final ExpressionFactory EXPRESSION_FACTORY = new ExpressionFactoryImpl();
 
+    /**
+     * Shared by every {@link RuleEvaluationContext}; the standard resolvers hold no per-request state.
+     */
+    static final ELResolver STANDARD_EL_RESOLVER = constructStandardElResolver();
+
+    /**
+     * Rules are compiled by {@link RuleCompiler} unless the system property <code>proctor.rules.interpret</code> is
+     * true, which leaves every rule to the EL interpreter as before.
+     */
+    static final boolean COMPILE_RULES = !Boolean.getBoolean("proctor.rules.interpret");
+
     @Nonnull
     final ExpressionFactory expressionFactory;
     @Nonnull
@@ -44,19 +59,41 @@ public class RuleEvaluator {
     private final Map<String, ValueExpression> testConstants;
     @Nonnull
     private final FunctionMapper functionMapper;
+    @Nonnull
+    private final ValueExpression alwaysTrue;
+    @Nonnull
+    private final ValueExpression alwaysFalse;
+    private final boolean compileRules;
 
     RuleEvaluator(
             @Nonnull final ExpressionFactory expressionFactory,
             @Nonnull final FunctionMapper functionMapper,
             @Nonnull final Map<String, Object> testConstantsMap
+    ) {
+        this(expressionFactory, functionMapper, testConstantsMap, COMPILE_RULES);
+    }
+
+    /**
+     * @param compileRules false to leave the rules returned by {@link #compileBooleanRule(String)} to the EL interpreter
+     */
+    RuleEvaluator(
+            @Nonnull final ExpressionFactory expressionFactory,
+            @Nonnull final FunctionMapper functionMapper,
+            @Nonnull final Map<String, Object> testConstantsMap,
+            final boolean compileRules
     ) {
         this.expressionFactory = expressionFactory;
 
         this.functionMapper = functionMapper;
 
+        this.compileRules = compileRules;
+
         elResolver = constructStandardElResolver();
 
         testConstants = ProctorUtils.convertToValueExpressionMap(expressionFactory, testConstantsMap);
+
+        alwaysTrue = expressionFactory.createValueExpression(Boolean.TRUE, Boolean.class);
+        alwaysFalse = expressionFactory.createValueExpression(Boolean.FALSE, Boolean.class);
     }
 
     @Nonnull
@@ -100,32 +137,104 @@ public class RuleEvaluator {
         };
     }
 
-    public boolean evaluateBooleanRule(@Nonnull final String rule, @Nonnull final Map<String, Object> values) throws IllegalArgumentException {
+    /**
+     * @return the result of a rule that is blank, invalid or a literal true or false, or null if the rule is an expression
+     */
+    @Nullable
+    private static Boolean getTrivialResult(@Nullable final String rule) {
         if (CharMatcher.WHITESPACE.matchesAllOf(Strings.nullToEmpty(rule))) {
-            return true;
+            return Boolean.TRUE;
         }
         if (!rule.startsWith("${") || !rule.endsWith("}")) {
             LOGGER.error("Invalid rule '" +  rule + "'");   //  TODO: should this be an exception?
-            return false;
+            return Boolean.FALSE;
         }
         final String bareRule = rule.substring(2, rule.length() - 1);
         if (CharMatcher.WHITESPACE.matchesAllOf(Strings.nullToEmpty(bareRule)) || "true".equalsIgnoreCase(bareRule)) {
-            return true;    //  always passes
+            return Boolean.TRUE;    //  always passes
         }
         if ("false".equalsIgnoreCase(bareRule)) {
-            return false;
+            return Boolean.FALSE;
         }
-        final Map<String, ValueExpression> localContext = ProctorUtils.convertToValueExpressionMap(expressionFactory, values);
-        //noinspection unchecked
-        final VariableMapper variableMapper = new MulticontextReadOnlyVariableMapper(testConstants, localContext);
+        return null;
+    }
+
+    public boolean evaluateBooleanRule(@Nonnull final String rule, @Nonnull final Map<String, Object> values) throws IllegalArgumentException {
+        final Boolean trivialResult = getTrivialResult(rule);
+        if (trivialResult != null) {
+            return trivialResult;
+        }
+        final VariableMapper variableMapper = new ContextVariableMapper(expressionFactory, testConstants, values);
         final ELContext elContext = createELContext(variableMapper);
 
         final ValueExpression ve = expressionFactory.createValueExpression(elContext, rule, Boolean.class);
-        final Object result = ve.getValue(elContext);
+        return checkBooleanResult(ve.getValue(elContext), rule);
+    }
+
+    /**
+     * Parses a rule once so that it can be evaluated any number of times with {@link #evaluateCompiledRule(ValueExpression, Map)}.
+     * Test constants are bound now; all other variables are bound to the values supplied at evaluation time.
+     * Rules within the subset understood by {@link RuleCompiler} are also compiled to plain Java, unless compiling is
+     * switched off (see {@link #COMPILE_RULES}).
+     * @throws javax.el.ELException if the rule cannot be parsed
+     */
+    @Nonnull
+    public final ValueExpression compileBooleanRule(@Nullable final String rule) {
+        return compileBooleanRule(rule, null);
+    }
+
+    /**
+     * @param boundConstants if not null, receives the names of the test constants the rule refers to
+     */
+    @Nonnull
+    final ValueExpression compileBooleanRule(@Nullable final String rule, @Nullable final Set<String> boundConstants) {
+        final Boolean trivialResult = getTrivialResult(rule);
+        if (trivialResult != null) {
+            return trivialResult ? alwaysTrue : alwaysFalse;
+        }
+        final DeferredVariableMapper variableMapper = new DeferredVariableMapper(testConstants);
+        final ELContext elContext = createELContext(variableMapper);
+        final ValueExpression ve = expressionFactory.createValueExpression(elContext, rule, Boolean.class);
+        if (boundConstants != null) {
+            boundConstants.addAll(variableMapper.getBoundConstants());
+        }
+        return compileRules ? RuleCompiler.compile(ve, elContext) : ve;
+    }
+
+    /**
+     * @param compiledRule a rule returned by {@link #compileBooleanRule(String)}
+     * @return the result of the rule if it depends only on literals and test constants, otherwise null
+     */
+    @Nullable
+    final Boolean getConstantResult(@Nonnull final ValueExpression compiledRule) {
+        if (compiledRule == alwaysTrue) {
+            return Boolean.TRUE;
+        }
+        if (compiledRule == alwaysFalse) {
+            return Boolean.FALSE;
+        }
+        return RuleCompiler.getConstantResult(compiledRule);
+    }
+
+    /**
+     * Evaluates a rule returned by {@link #compileBooleanRule(String)} against the supplied context variables.
+     */
+    public final boolean evaluateCompiledRule(@Nonnull final ValueExpression compiledRule, @Nonnull final Map<String, Object> values) throws IllegalArgumentException {
+        return evaluateCompiledRule(compiledRule, new RuleEvaluationContext(expressionFactory, functionMapper, values));
+    }
+
+    /**
+     * Evaluates a rule returned by {@link #compileBooleanRule(String)} in a context that may be shared with other rules and tests.
+     */
+    public final boolean evaluateCompiledRule(@Nonnull final ValueExpression compiledRule, @Nonnull final RuleEvaluationContext context) throws IllegalArgumentException {
+        return checkBooleanResult(compiledRule.getValue(context.getELContext()), compiledRule.getExpressionString());
+    }
+
+    private static boolean checkBooleanResult(@Nullable final Object result, @Nonnull final String rule) {
         if (result instanceof Boolean) {
             return ((Boolean) result);
         }
 
-        throw new IllegalArgumentException("Received non-boolean return value: " + result.getClass().getCanonicalName() + " from rule " + rule);
+        throw new IllegalArgumentException("Received non-boolean return value: " + (result == null ? null : result.getClass().getCanonicalName()) + " from rule " + rule);
     }
 }
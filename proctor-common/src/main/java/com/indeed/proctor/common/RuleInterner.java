@@ -0,0 +1,42 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * Gives the same id to every rule in a test matrix that is guaranteed to evaluate the same way for a given request:
+ * the same rule text bound to the same values of the test constants it refers to. Rules sharing an id are evaluated at
+ * most once per {@link RuleEvaluationContext}.
+ *
+ * Only used while a {@link Proctor} is being constructed, so not thread-safe.
+ */
+class RuleInterner {
+    @Nonnull
+    private final Map<Map.Entry<String, Map<String, Object>>, Integer> ruleIds = Maps.newHashMap();
+
+    /**
+     * @param rule the rule text
+     * @param boundConstants the test constants referred to by the rule, with their values
+     * @return a small non-negative id, shared by all rules with the same text and bound constants
+     */
+    int intern(@Nullable final String rule, @Nonnull final Map<String, Object> boundConstants) {
+        final Map.Entry<String, Map<String, Object>> key = Maps.immutableEntry(rule, boundConstants);
+        final Integer existing = ruleIds.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final int ruleId = ruleIds.size();
+        ruleIds.put(key, ruleId);
+        return ruleId;
+    }
+
+    /**
+     * @return the number of distinct rules interned so far; all ids are less than this
+     */
+    int size() {
+        return ruleIds.size();
+    }
+}
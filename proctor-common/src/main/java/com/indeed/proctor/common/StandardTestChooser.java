@@ -5,14 +5,18 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.indeed.proctor.common.model.Allocation;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.HashAlgorithm;
 import com.indeed.proctor.common.model.Range;
 import com.indeed.proctor.common.model.TestBucket;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.util.List;
 import java.util.Map;
@@ -23,7 +27,7 @@ import javax.el.FunctionMapper;
 
 
 /**
- * Embodies the logic for a single test, including applicability rule and distribution.  {@link #choose(String, Map)} is the only useful entry point.
+ * Embodies the logic for a single test, including applicability rule and distribution.  {@link #choose(String, RuleEvaluationContext)} is the only useful entry point.
  * @author ketan
  */
 @VisibleForTesting
@@ -34,6 +38,10 @@ class StandardTestChooser implements TestChooser<String> {
     private final Hasher hasher;
     @Nonnull
     private final int[][] cutoffs;
+    /**
+     * Index of the group of linked tests whose hash this test shares, or -1
+     */
+    private final int hashGroup;
 
     public StandardTestChooser(
             @Nonnull final ExpressionFactory expressionFactory,
@@ -44,18 +52,33 @@ class StandardTestChooser implements TestChooser<String> {
         this(new TestRangeSelector(expressionFactory, functionMapper, testName, testDefinition));
     }
 
+    StandardTestChooser(
+            @Nonnull final ExpressionFactory expressionFactory,
+            @Nonnull final FunctionMapper functionMapper,
+            @Nonnull final String testName,
+            @Nonnull final ConsumableTestDefinition testDefinition,
+            @Nullable final RuleInterner ruleInterner,
+            final int hashGroup
+    ) {
+        this(new TestRangeSelector(new RuleEvaluator(expressionFactory, functionMapper, testDefinition.getConstants()), testName, testDefinition, ruleInterner), hashGroup);
+    }
+
     @VisibleForTesting
     StandardTestChooser(@Nonnull final TestRangeSelector selector) {
+        this(selector, -1);
+    }
+
+    /**
+     * @param hashGroup index of the group of linked tests whose identifier hashes can be shared through
+     *                  {@link RuleEvaluationContext#hash(int, String, Hasher)}, or -1
+     */
+    private StandardTestChooser(@Nonnull final TestRangeSelector selector, final int hashGroup) {
         this.testRangeSelector = selector;
+        this.hashGroup = hashGroup;
         this.hasher = newHasherFor(selector);
 
         final ConsumableTestDefinition testDefinition = selector.getTestDefinition();
 
-        final Map<Integer, TestBucket> bucketValueToTest = Maps.newHashMap();
-        for (final TestBucket testBucket : testDefinition.getBuckets()) {
-            bucketValueToTest.put(testBucket.getValue(), testBucket);
-        }
-
         final List<Allocation> allocations = testDefinition.getAllocations();
         this.cutoffs = new int[allocations.size()][];
         for (int i = 0; i < allocations.size(); i++) {
@@ -65,6 +88,14 @@ class StandardTestChooser implements TestChooser<String> {
         }
     }
 
+    /**
+     * @return a chooser for the same, unchanged test in a new {@link Proctor}, sharing this one's compiled rules
+     */
+    @Nonnull
+    StandardTestChooser rebind(@Nullable final RuleInterner ruleInterner, final int hashGroup) {
+        return new StandardTestChooser(new TestRangeSelector(testRangeSelector, ruleInterner), hashGroup);
+    }
+
     @Nonnull
     private static int[] constructCutoffArray(
             @Nullable final String rule,
@@ -92,19 +123,35 @@ class StandardTestChooser implements TestChooser<String> {
         return cutoffs;
     }
 
-    public static Hasher newHasherFor(@Nonnull final TestRangeSelector selector) {
-        final String salt = Strings.nullToEmpty(selector.getTestDefinition().getSalt());
+    /**
+     * @return true if the identifier hashes of the test depend only on its salt, so they are the same for every test of
+     * the same type, salt and {@link HashAlgorithm}
+     */
+    static boolean isSaltOnly(@Nonnull final ConsumableTestDefinition testDefinition) {
+        return Strings.nullToEmpty(testDefinition.getSalt()).startsWith("&");
+    }
+
+    static boolean isFastHash(@Nonnull final ConsumableTestDefinition testDefinition) {
+        return testDefinition.getHashAlgorithm() == HashAlgorithm.MURMUR3;
+    }
 
+    public static Hasher newHasherFor(@Nonnull final TestRangeSelector selector) {
         @Nonnull final Hasher result;
         // The standard naming convention is to let the test salt be == the test name
         //  The '&' salt-prefix character is used (TEMPORARILY!) as a special flag indicated that the test name
         //  should not be a parameter to the hashing function, thus allowing multiple tests to be 'linked'
         //  through sharing the same prefixed test salt.
         //
-        // TODO This test should be replaced with a definitionVersion test once all proctor-consumer applications
-        //  have been updated to use a lenient parser and we can safely add to the schema.
+        // The hash algorithm is read from the hashAlgorithm field of the definition, which older consumers parse
+        //  leniently and ignore: they keep hashing a MURMUR3 test with MD5, and so put the same identifier in a
+        //  different bucket. See HashAlgorithm before using MURMUR3.
         //
-        if (salt.startsWith("&")) {
+        if (isFastHash(selector.getTestDefinition())) {
+            final String salt = isSaltOnly(selector.getTestDefinition())
+                    ? TestSaltHasher.extractSalt(selector)
+                    : TestNameAndSaltHasher.extractSalt(selector);
+            result = new Murmur3Hasher(salt);
+        } else if (isSaltOnly(selector.getTestDefinition())) {
             // Newer tests use the salt-only hasher
             result = new TestSaltHasher(selector);
         } else {
@@ -116,9 +163,14 @@ class StandardTestChooser implements TestChooser<String> {
     }
 
     @Nullable
-    @Override
     public TestBucket choose(@Nullable final String identifier, @Nonnull final Map<String, Object> values) {
-        final int matchingRuleIndex = testRangeSelector.findMatchingRule(values);
+        return choose(identifier, new RuleEvaluationContext(values));
+    }
+
+    @Nullable
+    @Override
+    public TestBucket choose(@Nullable final String identifier, @Nonnull final RuleEvaluationContext context) {
+        final int matchingRuleIndex = testRangeSelector.findMatchingRule(context);
         if (matchingRuleIndex < 0) {
             return null;
         }
@@ -126,20 +178,39 @@ class StandardTestChooser implements TestChooser<String> {
         return chooseBucket(
                 cutoffs[matchingRuleIndex],
                 testRangeSelector.getBucketRange(matchingRuleIndex),
-                Preconditions.checkNotNull(identifier, "Missing identifier"));
+                context.hash(hashGroup, Preconditions.checkNotNull(identifier, "Missing identifier"), hasher));
+    }
+
+    private TestBucket chooseBucket(@Nonnull final int[] matchingCutoffs, final TestBucket[] matchingBucketRange, final int value) {
+        return matchingBucketRange[findRange(matchingCutoffs, value)];
     }
 
-    private TestBucket chooseBucket(@Nonnull final int[] matchingCutoffs, final TestBucket[] matchingBucketRange, @Nonnull final String identifier) {
-        final int value = hasher.hash(identifier);
-        int i;
-        for (i = 0; i < matchingCutoffs.length && value > matchingCutoffs[i]; i++) { /* intentionally empty */ }
-        return matchingBucketRange[i];
+    /**
+     * @param cutoffs ascending upper bounds (inclusive) of all ranges but the last
+     * @return the index of the first range whose cutoff is at least <code>value</code>, or the last range; the first
+     * of several empty ranges sharing a cutoff wins, as in a linear scan
+     */
+    static int findRange(@Nonnull final int[] cutoffs, final int value) {
+        int low = 0;
+        int high = cutoffs.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (value > cutoffs[middle]) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
     }
 
     private Map<String, String> getDescriptorParameters() {
         final Map<String, String> parameters = Maps.newLinkedHashMap();
         parameters.put("type", testRangeSelector.getTestDefinition().getTestType().name());
         parameters.put("salt", testRangeSelector.getTestDefinition().getSalt());
+        if (isFastHash(testRangeSelector.getTestDefinition())) {
+            parameters.put("hash", HashAlgorithm.MURMUR3.name());
+        }
         return parameters;
     }
 
@@ -185,10 +256,68 @@ class StandardTestChooser implements TestChooser<String> {
     /**
      * @author matts
      */
-    private static interface Hasher {
+    static interface Hasher {
         public int hash(@Nonnull String identifier);
     }
 
+    /**
+     * Hashing runs for every test on every request, so each thread reuses one digest and its buffers rather than
+     * looking up a new MessageDigest and encoding the identifier into fresh arrays each time.
+     */
+    private static final ThreadLocal<MD5State> MD5_STATE = new ThreadLocal<MD5State>() {
+        @Nonnull
+        @Override
+        protected MD5State initialValue() {
+            return new MD5State();
+        }
+    };
+
+    private static class MD5State {
+        @Nonnull
+        private final MessageDigest md = ProctorUtils.createMessageDigest();
+        @Nonnull
+        private final byte[] digest = new byte[md.getDigestLength()];
+        @Nonnull
+        private byte[] identifierBytes = new byte[64];
+
+        /**
+         * Encodes <code>identifier</code> into {@link #identifierBytes} exactly as <code>identifier.getBytes(UTF_8)</code>
+         * would, malformed surrogates included.
+         * @return the number of bytes written
+         */
+        private int encode(@Nonnull final String identifier) {
+            final int length = identifier.length();
+            if (identifierBytes.length < 3 * length) {
+                identifierBytes = new byte[3 * length];
+            }
+            final byte[] bytes = identifierBytes;
+            int position = 0;
+            for (int i = 0; i < length; i++) {
+                final char c = identifier.charAt(i);
+                if (c < 0x80) {
+                    bytes[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[position++] = (byte) (0xc0 | (c >> 6));
+                    bytes[position++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(identifier.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, identifier.charAt(++i));
+                    bytes[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    bytes[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                    //  unpaired surrogate; String.getBytes substitutes the encoder's replacement
+                    bytes[position++] = (byte) '?';
+                } else {
+                    bytes[position++] = (byte) (0xe0 | (c >> 12));
+                    bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    bytes[position++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            return position;
+        }
+    }
+
     /**
      * @author matts
      */
@@ -201,14 +330,21 @@ class StandardTestChooser implements TestChooser<String> {
 
         @Override
         public int hash(@Nonnull final String identifier) {
-            final MessageDigest md = ProctorUtils.createMessageDigest();
+            final MD5State state = MD5_STATE.get();
+            final MessageDigest md = state.md;
 
+            final int identifierLength = state.encode(identifier);
             md.update(bytes);
-            md.update(identifier.getBytes(Charsets.UTF_8));
+            md.update(state.identifierBytes, 0, identifierLength);
 
-            final byte[] digest = md.digest();
+            try {
+                md.digest(state.digest, 0, state.digest.length);
+            } catch (@Nonnull final DigestException e) {
+                md.reset();
+                throw new RuntimeException("Impossible MD5 digest length", e);
+            }
 
-            return convertToInt(digest);
+            return convertToInt(state.digest);
         }
 
         private static int convertToInt(final byte[] digest) {
@@ -246,4 +382,23 @@ class StandardTestChooser implements TestChooser<String> {
             return Strings.nullToEmpty(testDefinition.getSalt());
         }
     }
+
+    /**
+     * 32-bit murmur3 of the identifier's chars, seeded with a hash of the salt. Uniform enough for bucketing at a small
+     * fraction of the cost of MD5, and allocation-free apart from the short-lived result.
+     */
+    private static class Murmur3Hasher implements Hasher {
+        @Nonnull
+        private final HashFunction hashFunction;
+
+        private Murmur3Hasher(@Nonnull final String salt) {
+            final int seed = Hashing.murmur3_32().hashBytes(salt.getBytes(Charsets.UTF_8)).asInt();
+            this.hashFunction = Hashing.murmur3_32(seed);
+        }
+
+        @Override
+        public int hash(@Nonnull final String identifier) {
+            return hashFunction.hashUnencodedChars(identifier).asInt();
+        }
+    }
 }
@@ -6,7 +6,6 @@ import com.indeed.proctor.common.model.TestBucket;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.PrintWriter;
-import java.util.Map;
 
 interface TestChooser<IdentifierType> {
 
@@ -25,5 +24,5 @@ interface TestChooser<IdentifierType> {
     String getTestName();
 
     @Nullable
-    TestBucket choose(@Nullable IdentifierType identifier, @Nonnull Map<String, Object> values);
+    TestBucket choose(@Nullable IdentifierType identifier, @Nonnull RuleEvaluationContext context);
 }
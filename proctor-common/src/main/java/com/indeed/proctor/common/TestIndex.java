@@ -0,0 +1,101 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.Maps;
+import com.indeed.proctor.common.model.ConsumableTestDefinition;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Numbers the tests of a loaded test matrix (or of a {@link TestSubset} of it) in matrix order. Built once per
+ * {@link Proctor}, and shared by every {@link ProctorResult} it returns, which store their buckets by these numbers.
+ *
+ * The numbers are only meaningful for the matrix they were assigned in; callers that cache them should also keep
+ * the {@link TestIndex} they came from and compare it by identity.
+ */
+public final class TestIndex {
+    @Nonnull
+    private final String[] testNames;
+    @Nonnull
+    private final Map<String, Integer> indices;
+    @Nonnull
+    private final Map<String, ConsumableTestDefinition> testDefinitions;
+    @Nonnull
+    private final Map<String, Integer> testVersions;
+    /**
+     * Results of {@link #indicesOf}, by key; they live as long as this index
+     */
+    @Nonnull
+    private final ConcurrentMap<Object, int[]> cachedIndices = Maps.newConcurrentMap();
+
+    /**
+     * @param testDefinitions the tests to number, in order
+     */
+    TestIndex(@Nonnull final Map<String, ConsumableTestDefinition> testDefinitions) {
+        this.testNames = testDefinitions.keySet().toArray(new String[testDefinitions.size()]);
+        this.indices = Maps.newHashMapWithExpectedSize(testNames.length);
+        for (int i = 0; i < testNames.length; i++) {
+            indices.put(testNames[i], i);
+        }
+        this.testDefinitions = Collections.unmodifiableMap(testDefinitions);
+        final Map<String, Integer> versions = Maps.newLinkedHashMap();
+        for (final Entry<String, ConsumableTestDefinition> entry : testDefinitions.entrySet()) {
+            versions.put(entry.getKey(), entry.getValue().getVersion());
+        }
+        this.testVersions = Collections.unmodifiableMap(versions);
+    }
+
+    public int size() {
+        return testNames.length;
+    }
+
+    /**
+     * @return the number of the test, or -1 if it is not one of these tests
+     */
+    public int indexOf(@Nullable final Object testName) {
+        final Integer index = indices.get(testName);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * @return the number of each of <code>testNames</code>, or -1 for tests that are not among these tests; worked out
+     * the first time it is asked for with <code>key</code>, which stands for that list of names, and then reused. The
+     * returned array must not be modified.
+     */
+    @Nonnull
+    public int[] indicesOf(@Nonnull final Object key, @Nonnull final String[] testNames) {
+        final int[] cached = cachedIndices.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final int[] testIndices = new int[testNames.length];
+        for (int i = 0; i < testNames.length; i++) {
+            testIndices[i] = indexOf(testNames[i]);
+        }
+        //  a racing thread working out the same numbers is harmless
+        cachedIndices.put(key, testIndices);
+        return testIndices;
+    }
+
+    @Nonnull
+    public String getTestName(final int index) {
+        return testNames[index];
+    }
+
+    @Nonnull
+    public Map<String, ConsumableTestDefinition> getTestDefinitions() {
+        return testDefinitions;
+    }
+
+    /**
+     * @return an unmodifiable map from test name to test version
+     */
+    @Nonnull
+    public Map<String, Integer> getTestVersions() {
+        return testVersions;
+    }
+}
@@ -1,16 +1,21 @@
 package com.indeed.proctor.common;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import com.indeed.proctor.common.model.Allocation;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
 import com.indeed.proctor.common.model.Range;
 import com.indeed.proctor.common.model.TestBucket;
+import com.indeed.proctor.common.model.TestBucketIndex;
 import org.apache.log4j.Logger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.el.ExpressionFactory;
 import javax.el.FunctionMapper;
+import javax.el.ValueExpression;
 import java.io.PrintWriter;
 import java.text.NumberFormat;
 import java.util.Iterator;
@@ -18,6 +23,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 /**
  * This is perhaps not the greatest abstraction the world has seen; is meant to consolidate common functionality needed for different types of choosers WITHOUT using inheritance
@@ -33,8 +39,48 @@ public class TestRangeSelector {
     private final ConsumableTestDefinition testDefinition;
     @Nonnull
     private final String[] rules;
+    @Nullable
+    private final ValueExpression testRuleExpression;
+    /**
+     * Compiled allocation rules, parallel to {@link #rules}. A null entry means the rule could not be compiled and is
+     * re-parsed on each evaluation so that it fails exactly as it would have without compilation.
+     */
+    @Nonnull
+    private final ValueExpression[] ruleExpressions;
+    /**
+     * Ids given by the {@link RuleInterner} to the test rule and to each allocation rule, or -1 if the rule is not
+     * interned and must be evaluated every time.
+     */
+    private final int testRuleId;
+    @Nonnull
+    private final int[] ruleIds;
+    /**
+     * The test constants bound into the test rule and each allocation rule, with their values, which are part of what
+     * the rules are interned by; null for rules that are not interned
+     */
+    @Nullable
+    private final Map<String, Object> testRuleConstants;
+    @Nonnull
+    private final List<Map<String, Object>> ruleConstants;
+    /**
+     * The result of the test rule if it is the same for every context, otherwise null
+     */
+    @Nullable
+    private final Boolean testRuleResult;
+    /**
+     * Indices of the allocations that can match, in order: allocations whose rules are always false are left out, and
+     * so is everything after the first allocation whose rule is always true.
+     */
+    @Nonnull
+    private final int[] candidateAllocations;
+    /**
+     * Index of the first allocation whose rule is always true, or -1 if there is none
+     */
+    private final int alwaysMatchingAllocation;
     @Nonnull
     private final TestBucket[][] rangeToBucket;
+    @Nonnull
+    private final TestBucketIndex bucketIndex;
     private final RuleEvaluator ruleEvaluator;
 
     TestRangeSelector(@Nonnull final ExpressionFactory expressionFactory, @Nonnull final FunctionMapper functionMapper, final String testName, @Nonnull final ConsumableTestDefinition testDefinition) {
@@ -45,29 +91,136 @@ public class TestRangeSelector {
             @Nonnull final RuleEvaluator ruleEvaluator,
             @Nonnull final String testName,
             @Nonnull final ConsumableTestDefinition testDefinition
+    ) {
+        this(ruleEvaluator, testName, testDefinition, null);
+    }
+
+    /**
+     * @param ruleInterner if not null, rules equivalent to rules of other tests sharing the interner are evaluated only
+     *                     once per {@link RuleEvaluationContext}
+     */
+    TestRangeSelector(
+            @Nonnull final RuleEvaluator ruleEvaluator,
+            @Nonnull final String testName,
+            @Nonnull final ConsumableTestDefinition testDefinition,
+            @Nullable final RuleInterner ruleInterner
     ) {
         this.ruleEvaluator = ruleEvaluator;
 
         this.testName = testName;
         this.testDefinition = testDefinition;
 
-        final Map<Integer, TestBucket> bucketValueToTest = Maps.newHashMap();
-        for (final TestBucket testBucket : testDefinition.getBuckets()) {
-            bucketValueToTest.put(testBucket.getValue(), testBucket);
-        }
+        this.bucketIndex = new TestBucketIndex(testDefinition.getBuckets());
+        //  ranges have always resolved to the last of several buckets sharing a value, unlike getTestBucket
+        final TestBucketIndex lastBucketIndex = new TestBucketIndex(Lists.reverse(testDefinition.getBuckets()));
 
         final List<Allocation> allocations = testDefinition.getAllocations();
         this.rangeToBucket = new TestBucket[allocations.size()][];
         this.rules = new String[allocations.size()];
+        this.ruleExpressions = new ValueExpression[allocations.size()];
+        this.ruleIds = new int[allocations.size()];
+        this.ruleConstants = Lists.newArrayListWithCapacity(allocations.size());
         for (int i = 0; i < allocations.size(); i++) {
             final Allocation allocation = allocations.get(i);
             rules[i] = allocation.getRule();
+            final Set<String> boundConstants = Sets.newHashSet();
+            ruleExpressions[i] = compileRule(rules[i], boundConstants);
+            ruleConstants.add(getConstantValues(ruleExpressions[i], boundConstants));
+            ruleIds[i] = internRule(ruleInterner, rules[i], ruleConstants.get(i));
             final List<Range> ranges = allocation.getRanges();
             this.rangeToBucket[i] = new TestBucket[ranges.size()];
             for (int j = 0; j < ranges.size(); j++) {
-                this.rangeToBucket[i][j] = bucketValueToTest.get(ranges.get(j).getBucketValue());
+                this.rangeToBucket[i][j] = lastBucketIndex.get(ranges.get(j).getBucketValue());
+            }
+        }
+
+        final String testRule = testDefinition.getRule();
+        final Set<String> boundConstants = Sets.newHashSet();
+        this.testRuleExpression = (testRule == null) ? null : compileRule(testRule, boundConstants);
+        this.testRuleConstants = getConstantValues(testRuleExpression, boundConstants);
+        this.testRuleId = internRule(ruleInterner, testRule, testRuleConstants);
+        this.testRuleResult = getConstantResult(testRuleExpression);
+
+        final List<Integer> candidates = Lists.newArrayListWithCapacity(allocations.size());
+        int alwaysMatching = -1;
+        for (int i = 0; i < allocations.size() && alwaysMatching < 0; i++) {
+            final Boolean result = getConstantResult(ruleExpressions[i]);
+            if (!Boolean.FALSE.equals(result)) {
+                candidates.add(i);
+            }
+            if (Boolean.TRUE.equals(result)) {
+                alwaysMatching = i;
             }
         }
+        this.candidateAllocations = Ints.toArray(candidates);
+        this.alwaysMatchingAllocation = alwaysMatching;
+    }
+
+    /**
+     * Shares the compiled rules of a selector built for a previous {@link Proctor}, whose test definition is
+     * unchanged, giving them ids from the new <code>ruleInterner</code>.
+     */
+    TestRangeSelector(@Nonnull final TestRangeSelector previous, @Nullable final RuleInterner ruleInterner) {
+        this.ruleEvaluator = previous.ruleEvaluator;
+        this.testName = previous.testName;
+        this.testDefinition = previous.testDefinition;
+        this.bucketIndex = previous.bucketIndex;
+        this.rangeToBucket = previous.rangeToBucket;
+        this.rules = previous.rules;
+        this.ruleExpressions = previous.ruleExpressions;
+        this.ruleConstants = previous.ruleConstants;
+        this.ruleIds = new int[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            ruleIds[i] = internRule(ruleInterner, rules[i], ruleConstants.get(i));
+        }
+        this.testRuleExpression = previous.testRuleExpression;
+        this.testRuleConstants = previous.testRuleConstants;
+        this.testRuleId = internRule(ruleInterner, testDefinition.getRule(), testRuleConstants);
+        this.testRuleResult = previous.testRuleResult;
+        this.candidateAllocations = previous.candidateAllocations;
+        this.alwaysMatchingAllocation = previous.alwaysMatchingAllocation;
+    }
+
+    @Nullable
+    private Boolean getConstantResult(@Nullable final ValueExpression compiledRule) {
+        return (compiledRule == null) ? null : ruleEvaluator.getConstantResult(compiledRule);
+    }
+
+    @Nullable
+    private ValueExpression compileRule(@Nullable final String rule, @Nonnull final Set<String> boundConstants) {
+        try {
+            return ruleEvaluator.compileBooleanRule(rule, boundConstants);
+
+        } catch (@Nonnull final RuntimeException e) {
+            LOGGER.error(String.format("Failed to compile rule '%s' for test '%s': '%s'. It will be parsed on every evaluation.", rule, testName, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * @return the values of the constants bound into a compiled rule, or null if the rule could not be compiled
+     */
+    @Nullable
+    private Map<String, Object> getConstantValues(@Nullable final ValueExpression compiledRule, @Nonnull final Set<String> boundConstants) {
+        if (compiledRule == null) {
+            return null;
+        }
+        final Map<String, Object> boundConstantValues = Maps.newHashMap();
+        for (final String name : boundConstants) {
+            boundConstantValues.put(name, testDefinition.getConstants().get(name));
+        }
+        return boundConstantValues;
+    }
+
+    private static int internRule(
+            @Nullable final RuleInterner ruleInterner,
+            @Nullable final String rule,
+            @Nullable final Map<String, Object> boundConstantValues
+    ) {
+        if (ruleInterner == null || boundConstantValues == null) {
+            return -1;
+        }
+        return ruleInterner.intern(rule, boundConstantValues);
     }
 
     public TestBucket[] getBucketRange(final int index) {
@@ -75,30 +228,54 @@ public class TestRangeSelector {
     }
 
     public int findMatchingRule(@Nonnull final Map<String, Object> values) {
+        return findMatchingRule(new RuleEvaluationContext(values));
+    }
+
+    public int findMatchingRule(@Nonnull final RuleEvaluationContext context) {
         try {
             @Nullable final String rule = testDefinition.getRule();
             if (rule != null) {
-                if (! evaluateRule(rule, values)) {
+                if (testRuleResult != null) {
+                    if (!testRuleResult) {
+                        return -1;
+                    }
+                } else if (! evaluateRule(rule, testRuleExpression, testRuleId, context)) {
                     return -1;
                 }
             }
 
-            for (int i = 0; i < rules.length; i++) {
-                if (evaluateRule(rules[i], values)) {
+            for (final int i : candidateAllocations) {
+                if (i == alwaysMatchingAllocation || evaluateRule(rules[i], ruleExpressions[i], ruleIds[i], context)) {
                     return i;
                 }
             }
 
         } catch (InvalidRuleException e) {
-            LOGGER.error("Failed to evaluate test rules; ", e);
+            if (context.ruleFailed()) {
+                LOGGER.error("Failed to evaluate test rules; ", e);
+            }
         }
 
         return -1;
     }
 
-    private boolean evaluateRule(@Nonnull final String rule, @Nonnull final Map<String, Object> values) throws InvalidRuleException {
+    private boolean evaluateRule(
+            @Nonnull final String rule,
+            @Nullable final ValueExpression compiledRule,
+            final int ruleId,
+            @Nonnull final RuleEvaluationContext context
+    ) throws InvalidRuleException {
+        final Boolean previousResult = context.getRuleResult(ruleId);
+        if (previousResult != null) {
+            return previousResult;
+        }
         try {
-            return ruleEvaluator.evaluateBooleanRule(rule, values);
+            if (compiledRule == null) {
+                return ruleEvaluator.evaluateBooleanRule(rule, context.getValues());
+            }
+            final boolean result = ruleEvaluator.evaluateCompiledRule(compiledRule, context);
+            context.setRuleResult(ruleId, result);
+            return result;
 
         } catch (@Nonnull final RuntimeException e) {
             throw new InvalidRuleException(e, String.format(
@@ -124,12 +301,7 @@ public class TestRangeSelector {
      */
     @Nullable
     public TestBucket getTestBucket(final int value) {
-        for (final TestBucket testBucket : testDefinition.getBuckets()) {
-            if (testBucket.getValue() == value) {
-                return testBucket;
-            }
-        }
-        return null;
+        return bucketIndex.get(value);
     }
 
     @Nonnull
@@ -0,0 +1,52 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * A fixed set of tests for {@link Proctor#determineTestGroups(TestSubset, Identifiers, java.util.Map, java.util.Map)}
+ * to determine, skipping every other test in the matrix. Build it once, e.g. from the tests in an application's
+ * specification, and reuse it for every request: it remembers which test choosers it selects from the most recently
+ * used {@link Proctor}, so that they are only looked up again after the test matrix is reloaded.
+ *
+ * Tests that are not in the matrix are ignored.
+ */
+public final class TestSubset {
+    @Nonnull
+    private final Set<String> testNames;
+    @Nullable
+    private volatile Proctor.ResolvedTestSubset resolved;
+
+    private TestSubset(@Nonnull final Set<String> testNames) {
+        this.testNames = testNames;
+    }
+
+    @Nonnull
+    public static TestSubset of(@Nonnull final Collection<String> testNames) {
+        return new TestSubset(ImmutableSet.copyOf(testNames));
+    }
+
+    @Nonnull
+    public static TestSubset of(@Nonnull final String... testNames) {
+        return of(Arrays.asList(testNames));
+    }
+
+    @Nonnull
+    public Set<String> getTestNames() {
+        return testNames;
+    }
+
+    @Nullable
+    Proctor.ResolvedTestSubset getResolved() {
+        return resolved;
+    }
+
+    void setResolved(@Nonnull final Proctor.ResolvedTestSubset resolved) {
+        this.resolved = resolved;
+    }
+}
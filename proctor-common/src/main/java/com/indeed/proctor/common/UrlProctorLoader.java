@@ -1,24 +1,45 @@
 package com.indeed.proctor.common;
 
+import com.google.common.io.ByteStreams;
 import com.indeed.proctor.common.model.TestMatrixArtifact;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.el.FunctionMapper;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Support class for loading a test matrix artifact from a URL-based JSON file
+ *
+ * Over HTTP, the artifact is fetched with a conditional GET using the ETag and Last-Modified of the last successful
+ * load, so that an unchanged artifact is neither downloaded nor parsed, and gzip compression is accepted.
  * @author jack
  */
 public class UrlProctorLoader extends AbstractJsonProctorLoader {
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+
     @Nonnull
     private final URL inputURL;
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    /**
+     * Validators of the last successful load, and of the response being loaded now
+     */
+    @Nullable
+    private String loadedETag = null;
+    @Nullable
+    private String loadedLastModified = null;
+    @Nullable
+    private String pendingETag = null;
+    @Nullable
+    private String pendingLastModified = null;
 
     public UrlProctorLoader(@Nonnull final ProctorSpecification specification, @Nonnull final String inputUrl) throws MalformedURLException {
         this(specification, new URL(inputUrl));
@@ -38,6 +59,20 @@ public class UrlProctorLoader extends AbstractJsonProctorLoader {
         this.inputURL = inputUrl;
     }
 
+    /**
+     * @param connectTimeoutMillis timeout for connecting to the URL, 0 for none; 10 seconds by default
+     */
+    public void setConnectTimeoutMillis(final int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @param readTimeoutMillis timeout for each read from the URL, 0 for none; 60 seconds by default
+     */
+    public void setReadTimeoutMillis(final int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
     @Nonnull
     @Override
     protected String getSource() {
@@ -47,11 +82,83 @@ public class UrlProctorLoader extends AbstractJsonProctorLoader {
     @Nullable
     @Override
     protected TestMatrixArtifact loadTestMatrix() throws IOException, MissingTestMatrixException {
-        final Reader reader = new BufferedReader(new InputStreamReader(inputURL.openStream()));
+        final URLConnection connection = inputURL.openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        if (! (connection instanceof HttpURLConnection)) {
+            return loadJsonTestMatrix(connection.getInputStream());
+        }
+
+        final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        httpConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (loadedETag != null) {
+            httpConnection.setRequestProperty("If-None-Match", loadedETag);
+        }
+        if (loadedLastModified != null) {
+            httpConnection.setRequestProperty("If-Modified-Since", loadedLastModified);
+        }
+
+        if (httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            //  close the empty body, so that the connection can be reused
+            httpConnection.getInputStream().close();
+            return UNCHANGED_TEST_MATRIX;
+        }
+        final InputStream inputStream;
+        try {
+            //  throws for error responses
+            inputStream = httpConnection.getInputStream();
+        } catch (@Nonnull final IOException e) {
+            discardErrorStream(httpConnection);
+            throw e;
+        }
+        pendingETag = httpConnection.getHeaderField("ETag");
+        pendingLastModified = httpConnection.getHeaderField("Last-Modified");
+        if (pendingETag != null && pendingETag.equals(loadedETag)) {
+            //  the server ignored the condition, but the artifact is the one already loaded
+            inputStream.close();
+            return UNCHANGED_TEST_MATRIX;
+        }
+
+        final InputStream contents;
+        try {
+            contents = "gzip".equalsIgnoreCase(httpConnection.getContentEncoding()) ? new GZIPInputStream(inputStream) : inputStream;
+        } catch (@Nonnull final IOException e) {
+            inputStream.close();
+            throw e;
+        }
+        final TestMatrixArtifact testMatrix = loadJsonTestMatrix(contents);
+        if (testMatrix == UNCHANGED_TEST_MATRIX) {
+            //  the same contents as last time, so the new validators describe them too
+            loadedETag = pendingETag;
+            loadedLastModified = pendingLastModified;
+        }
+        return testMatrix;
+    }
+
+    /**
+     * Reads the body of an error response to the end and closes it, so that the connection can be reused; a connection
+     * whose body cannot be read is closed instead
+     */
+    private static void discardErrorStream(@Nonnull final HttpURLConnection httpConnection) {
+        final InputStream errorStream = httpConnection.getErrorStream();
+        if (errorStream == null) {
+            return;
+        }
         try {
-            return loadJsonTestMatrix(reader);
-        } finally {
-            reader.close();
+            try {
+                ByteStreams.copy(errorStream, ByteStreams.nullOutputStream());
+            } finally {
+                errorStream.close();
+            }
+        } catch (@Nonnull final IOException e) {
+            httpConnection.disconnect();
         }
     }
+
+    @Override
+    void testMatrixLoaded() {
+        super.testMatrixLoaded();
+        loadedETag = pendingETag;
+        loadedLastModified = pendingLastModified;
+    }
 }
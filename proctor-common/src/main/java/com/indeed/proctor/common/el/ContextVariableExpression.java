@@ -0,0 +1,93 @@
+package com.indeed.proctor.common.el;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.el.ELContext;
+import javax.el.PropertyNotFoundException;
+import javax.el.PropertyNotWritableException;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+
+/**
+ * Stands in for a context variable in a pre-compiled rule. The Unified Expression Language captures variables when an
+ * expression is parsed, so rules that are parsed once and evaluated many times are bound to these placeholders instead,
+ * and the real value is looked up in the {@link VariableMapper} of the {@link ELContext} used for evaluation.
+ */
+public class ContextVariableExpression extends ValueExpression {
+    private static final long serialVersionUID = -1874521035926532215L;
+
+    @Nonnull
+    private final String name;
+
+    public ContextVariableExpression(@Nonnull final String name) {
+        this.name = name;
+    }
+
+    @Nonnull
+    private ValueExpression resolve(@Nonnull final ELContext context) {
+        final VariableMapper variableMapper = context.getVariableMapper();
+        final ValueExpression ve = (variableMapper == null) ? null : variableMapper.resolveVariable(name);
+        if (ve == null) {
+            throw new PropertyNotFoundException("Unable to resolve context variable '" + name + "'");
+        }
+        return ve;
+    }
+
+    @Nullable
+    @Override
+    public Object getValue(@Nonnull final ELContext context) {
+        final VariableMapper variableMapper = context.getVariableMapper();
+        if (variableMapper instanceof ContextVariableMapper) {
+            //  read straight from the context map instead of wrapping the value only to unwrap it again
+            return ((ContextVariableMapper) variableMapper).getValue(context, name);
+        }
+        return resolve(context).getValue(context);
+    }
+
+    @Override
+    public void setValue(final ELContext context, final Object value) {
+        throw new PropertyNotWritableException("Setting variables is not allowed");
+    }
+
+    @Override
+    public boolean isReadOnly(final ELContext context) {
+        return true;
+    }
+
+    @Override
+    public Class<?> getType(@Nonnull final ELContext context) {
+        return resolve(context).getType(context);
+    }
+
+    @Override
+    public Class<?> getExpectedType() {
+        return Object.class;
+    }
+
+    @Nonnull
+    @Override
+    public String getExpressionString() {
+        return name;
+    }
+
+    @Override
+    public boolean isLiteralText() {
+        return false;
+    }
+
+    @Override
+    public boolean equals(@Nullable final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return name.equals(((ContextVariableExpression) obj).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+}
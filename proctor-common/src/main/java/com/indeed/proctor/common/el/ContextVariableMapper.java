@@ -0,0 +1,72 @@
+package com.indeed.proctor.common.el;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.el.ELContext;
+import javax.el.ExpressionFactory;
+import javax.el.PropertyNotFoundException;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+
+/**
+ * Resolves variables from a precomputed map of constants, then directly from the caller's context map. Context values
+ * are only wrapped in a {@link ValueExpression} when a rule actually refers to them, rather than converting the whole
+ * context up front.
+ */
+public class ContextVariableMapper extends VariableMapper {
+    @Nonnull
+    private final ExpressionFactory expressionFactory;
+    @Nonnull
+    private final Map<String, ValueExpression> constants;
+    @Nonnull
+    private final Map<String, Object> values;
+
+    public ContextVariableMapper(
+            @Nonnull final ExpressionFactory expressionFactory,
+            @Nonnull final Map<String, ValueExpression> constants,
+            @Nonnull final Map<String, Object> values
+    ) {
+        this.expressionFactory = expressionFactory;
+        this.constants = constants;
+        this.values = values;
+    }
+
+    @Nullable
+    @Override
+    public ValueExpression resolveVariable(final String name) {
+        final ValueExpression constant = constants.get(name);
+        if (constant != null) {
+            return constant;
+        }
+        final Object value = values.get(name);
+        if (value == null && !values.containsKey(name)) {
+            return null;
+        }
+        return expressionFactory.createValueExpression(value, Object.class);
+    }
+
+    /**
+     * Same lookup as {@link #resolveVariable(String)} but returns the value itself, so nothing is wrapped.
+     * @throws PropertyNotFoundException if the variable is neither a constant nor in the context
+     */
+    @Nullable
+    public Object getValue(@Nonnull final ELContext context, final String name) {
+        final ValueExpression constant = constants.get(name);
+        if (constant != null) {
+            return constant.getValue(context);
+        }
+        final Object value = values.get(name);
+        if (value == null && !values.containsKey(name)) {
+            throw new PropertyNotFoundException("Unable to resolve context variable '" + name + "'");
+        }
+        return value;
+    }
+
+    @Nonnull
+    @Override
+    public ValueExpression setVariable(final String name, final ValueExpression expression) {
+        throw new IllegalStateException("Setting variables is not allowed");
+    }
+}
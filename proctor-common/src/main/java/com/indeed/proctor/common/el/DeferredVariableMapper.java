@@ -0,0 +1,51 @@
+package com.indeed.proctor.common.el;
+
+import com.google.common.collect.Sets;
+
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+
+/**
+ * Used while compiling a rule: variables found in the given constants are bound immediately, every other variable is
+ * bound to a {@link ContextVariableExpression} to be resolved when the rule is evaluated.
+ */
+public class DeferredVariableMapper extends VariableMapper {
+    @Nonnull
+    private final Map<String, ValueExpression> constants;
+    @Nonnull
+    private final Set<String> boundConstants = Sets.newHashSet();
+
+    public DeferredVariableMapper(@Nonnull final Map<String, ValueExpression> constants) {
+        this.constants = constants;
+    }
+
+    @Nullable
+    @Override
+    public ValueExpression resolveVariable(final String name) {
+        final ValueExpression ve = constants.get(name);
+        if (ve != null) {
+            boundConstants.add(name);
+            return ve;
+        }
+        return new ContextVariableExpression(name);
+    }
+
+    /**
+     * @return the names of the constants that have been bound so far
+     */
+    @Nonnull
+    public Set<String> getBoundConstants() {
+        return boundConstants;
+    }
+
+    @Nonnull
+    @Override
+    public ValueExpression setVariable(final String name, final ValueExpression expression) {
+        throw new IllegalStateException("Setting variables is not allowed");
+    }
+}
@@ -0,0 +1,775 @@
+package com.indeed.proctor.common.el;
+
+import org.apache.el.lang.ELSupport;
+import org.apache.el.lang.EvaluationContext;
+import org.apache.el.lang.ExpressionBuilder;
+import org.apache.el.parser.AstAnd;
+import org.apache.el.parser.AstBracketSuffix;
+import org.apache.el.parser.AstChoice;
+import org.apache.el.parser.AstCompositeExpression;
+import org.apache.el.parser.AstDeferredExpression;
+import org.apache.el.parser.AstDotSuffix;
+import org.apache.el.parser.AstDynamicExpression;
+import org.apache.el.parser.AstEmpty;
+import org.apache.el.parser.AstEqual;
+import org.apache.el.parser.AstFalse;
+import org.apache.el.parser.AstFloatingPoint;
+import org.apache.el.parser.AstFunction;
+import org.apache.el.parser.AstGreaterThan;
+import org.apache.el.parser.AstGreaterThanEqual;
+import org.apache.el.parser.AstIdentifier;
+import org.apache.el.parser.AstInteger;
+import org.apache.el.parser.AstLessThan;
+import org.apache.el.parser.AstLessThanEqual;
+import org.apache.el.parser.AstNot;
+import org.apache.el.parser.AstNotEqual;
+import org.apache.el.parser.AstNull;
+import org.apache.el.parser.AstOr;
+import org.apache.el.parser.AstString;
+import org.apache.el.parser.AstTrue;
+import org.apache.el.parser.AstValue;
+import org.apache.el.parser.Node;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.el.ELContext;
+import javax.el.ELException;
+import javax.el.FunctionMapper;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates the subset of EL used by allocation rules (comparisons, boolean operators, <code>empty</code>, the ternary
+ * operator, library function calls and property access) into a tree of plain Java objects. Function methods and
+ * property accessors are resolved once instead of through the {@link javax.el.ELResolver} chain on every evaluation.
+ * Test constants and literals are folded into the tree, so operators whose operands are all constant are computed
+ * once here; function calls are never folded because a library function may depend on more than its arguments
+ * (<code>proctor:now()</code>).
+ *
+ * Compiled rules keep the interpreted expression they were built from. Rules using anything else are left
+ * interpreted, and any evaluation the compiled form cannot handle exactly like the interpreter (a null base object, a
+ * list or array property...) is handed back to the interpreter, so results and exceptions are always the same as
+ * before. A function or accessor that throws is not called again by the interpreter: the rule fails with the
+ * {@link ELException} the interpreter would have thrown.
+ */
+public final class RuleCompiler {
+    private RuleCompiler() {
+    }
+
+    /**
+     * @param interpreted a rule parsed in <code>elContext</code>
+     * @param elContext the context the rule was parsed in, whose {@link VariableMapper} resolves context variables to
+     *                  {@link ContextVariableExpression}s
+     * @return a compiled equivalent of <code>interpreted</code>, or <code>interpreted</code> itself if the rule cannot be
+     * compiled
+     */
+    @Nonnull
+    public static ValueExpression compile(@Nonnull final ValueExpression interpreted, @Nonnull final ELContext elContext) {
+        final Term term;
+        try {
+            term = compileNode(ExpressionBuilder.createNode(interpreted.getExpressionString()), elContext);
+        } catch (@Nonnull final RuntimeException e) {
+            return interpreted;
+        }
+        if (term == null) {
+            return interpreted;
+        }
+        return new CompiledValueExpression(interpreted, term);
+    }
+
+    /**
+     * @param compiledRule a rule returned by {@link #compile(ValueExpression, ELContext)}
+     * @return the result of the rule if it is the same for every context, otherwise null
+     */
+    @Nullable
+    public static Boolean getConstantResult(@Nonnull final ValueExpression compiledRule) {
+        if (!(compiledRule instanceof CompiledValueExpression)) {
+            return null;
+        }
+        final CompiledValueExpression compiled = (CompiledValueExpression) compiledRule;
+        if (!(compiled.term instanceof Constant)) {
+            return null;
+        }
+        try {
+            final Object result = ELSupport.coerceToType(((Constant) compiled.term).value, compiled.getExpectedType());
+            //  anything else fails at evaluation, as it always has
+            return (result instanceof Boolean) ? (Boolean) result : null;
+        } catch (@Nonnull final RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return null if the node or any of its children is not supported
+     */
+    @Nullable
+    private static Term compileNode(@Nonnull final Node node, @Nonnull final ELContext elContext) {
+        if (node instanceof AstDynamicExpression || node instanceof AstDeferredExpression || node instanceof AstCompositeExpression) {
+            return (node.jjtGetNumChildren() == 1) ? compileNode(node.jjtGetChild(0), elContext) : null;
+        }
+        if (node instanceof AstTrue || node instanceof AstFalse || node instanceof AstNull
+                || node instanceof AstInteger || node instanceof AstFloatingPoint || node instanceof AstString) {
+            final EvaluationContext evaluationContext = new EvaluationContext(elContext, elContext.getFunctionMapper(), elContext.getVariableMapper());
+            return new Constant(node.getValue(evaluationContext));
+        }
+        if (node instanceof AstIdentifier) {
+            return compileIdentifier(node.getImage(), elContext);
+        }
+        if (node instanceof AstValue) {
+            return compileValue(node, elContext);
+        }
+        if (node instanceof AstFunction) {
+            return compileFunction((AstFunction) node, elContext);
+        }
+
+        final Term[] children = compileChildren(node, elContext);
+        if (children == null) {
+            return null;
+        }
+        if (node instanceof AstAnd) {
+            return shortCircuit(new And(children[0], children[1]), children[0], children[1], false);
+        }
+        if (node instanceof AstOr) {
+            return shortCircuit(new Or(children[0], children[1]), children[0], children[1], true);
+        }
+        if (node instanceof AstNot) {
+            return fold(new Not(children[0]), children);
+        }
+        if (node instanceof AstEmpty) {
+            return fold(new Empty(children[0]), children);
+        }
+        if (node instanceof AstEqual) {
+            return fold(new Equal(children[0], children[1], true), children);
+        }
+        if (node instanceof AstNotEqual) {
+            return fold(new Equal(children[0], children[1], false), children);
+        }
+        if (node instanceof AstGreaterThan) {
+            return fold(new Comparison(children[0], children[1], ComparisonOperator.GREATER_THAN), children);
+        }
+        if (node instanceof AstGreaterThanEqual) {
+            return fold(new Comparison(children[0], children[1], ComparisonOperator.GREATER_THAN_OR_EQUAL), children);
+        }
+        if (node instanceof AstLessThan) {
+            return fold(new Comparison(children[0], children[1], ComparisonOperator.LESS_THAN), children);
+        }
+        if (node instanceof AstLessThanEqual) {
+            return fold(new Comparison(children[0], children[1], ComparisonOperator.LESS_THAN_OR_EQUAL), children);
+        }
+        if (node instanceof AstChoice) {
+            if (children[0] instanceof Constant) {
+                final Boolean condition = constantBoolean((Constant) children[0]);
+                if (condition != null) {
+                    return condition ? children[1] : children[2];
+                }
+            }
+            return fold(new Choice(children[0], children[1], children[2]), children);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of <code>operator</code> if all its operands are constant, otherwise <code>operator</code>
+     */
+    @Nonnull
+    private static Term fold(@Nonnull final Term operator, @Nonnull final Term... operands) {
+        for (final Term operand : operands) {
+            if (!(operand instanceof Constant)) {
+                return operator;
+            }
+        }
+        try {
+            //  constant operands never look at the context
+            return new Constant(operator.evaluate(null, null));
+        } catch (@Nonnull final RuntimeException e) {
+            //  leave the failure for evaluation time
+            return operator;
+        }
+    }
+
+    /**
+     * Folds <code>and</code> / <code>or</code> whose left operand alone decides the result; the right operand is then
+     * never evaluated, by the interpreter either.
+     * @param deciding the left operand value that decides the result: false for <code>and</code>, true for <code>or</code>
+     */
+    @Nonnull
+    private static Term shortCircuit(@Nonnull final Term operator, @Nonnull final Term left, @Nonnull final Term right, final boolean deciding) {
+        if (left instanceof Constant) {
+            final Boolean leftValue = constantBoolean((Constant) left);
+            if (leftValue != null && leftValue == deciding) {
+                return new Constant(leftValue);
+            }
+        }
+        return fold(operator, left, right);
+    }
+
+    @Nullable
+    private static Boolean constantBoolean(@Nonnull final Constant constant) {
+        try {
+            return ELSupport.coerceToBoolean(constant.value);
+        } catch (@Nonnull final RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Term[] compileChildren(@Nonnull final Node node, @Nonnull final ELContext elContext) {
+        final Term[] children = new Term[node.jjtGetNumChildren()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = compileNode(node.jjtGetChild(i), elContext);
+            if (children[i] == null) {
+                return null;
+            }
+        }
+        return children;
+    }
+
+    @Nullable
+    private static Term compileIdentifier(@Nonnull final String name, @Nonnull final ELContext elContext) {
+        final VariableMapper variableMapper = elContext.getVariableMapper();
+        final ValueExpression ve = (variableMapper == null) ? null : variableMapper.resolveVariable(name);
+        if (ve instanceof ContextVariableExpression) {
+            return new ContextVariable(name);
+        }
+        if (ve != null) {
+            //  a test constant
+            return new Constant(ve.getValue(elContext));
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Term compileValue(@Nonnull final Node node, @Nonnull final ELContext elContext) {
+        final Term prefix = compileNode(node.jjtGetChild(0), elContext);
+        if (prefix == null) {
+            return null;
+        }
+        final Term[] properties = new Term[node.jjtGetNumChildren() - 1];
+        final PropertyReader[] readers = new PropertyReader[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            final Node suffix = node.jjtGetChild(i + 1);
+            if (suffix instanceof AstDotSuffix) {
+                properties[i] = new Constant(suffix.getImage());
+            } else if (suffix instanceof AstBracketSuffix && suffix.jjtGetNumChildren() == 1) {
+                properties[i] = compileNode(suffix.jjtGetChild(0), elContext);
+            } else {
+                //  method invocation
+                return null;
+            }
+            if (properties[i] == null) {
+                return null;
+            }
+            readers[i] = new PropertyReader();
+        }
+        return new PropertyChain(prefix, properties, readers);
+    }
+
+    @Nullable
+    private static Term compileFunction(@Nonnull final AstFunction node, @Nonnull final ELContext elContext) {
+        final FunctionMapper functionMapper = elContext.getFunctionMapper();
+        final Method method = (functionMapper == null) ? null : functionMapper.resolveFunction(node.getPrefix(), node.getLocalName());
+        if (method == null || method.getParameterTypes().length != node.jjtGetNumChildren()) {
+            return null;
+        }
+        final Term[] arguments = compileChildren(node, elContext);
+        if (arguments == null) {
+            return null;
+        }
+        return new Function(node.getOutputName(), method, arguments);
+    }
+
+    /**
+     * Thrown when a compiled rule meets a case it does not handle exactly like the interpreter; the rule is then
+     * evaluated by the interpreter instead.
+     */
+    private static final RuntimeException INTERPRET = new Interpret("Interpret rule");
+
+    /**
+     * Thrown when a compiled rule meets a case it will never handle, such as a property of a type it cannot find an
+     * accessor for; the rule is then left to the interpreter from then on.
+     */
+    private static final RuntimeException INTERPRET_ALWAYS = new Interpret("Interpret rule from now on");
+
+    /**
+     * Thrown often enough to be preallocated, so it carries no stack trace.
+     */
+    private static class Interpret extends RuntimeException {
+        private static final long serialVersionUID = 7520684316742167380L;
+
+        private Interpret(@Nonnull final String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * A function or accessor that threw, wrapped as the interpreter wraps it. The call may have had side effects, so
+     * the rule fails with this instead of being evaluated again by the interpreter.
+     */
+    private static class InvocationFailure extends ELException {
+        private static final long serialVersionUID = -1841853604787155614L;
+
+        private InvocationFailure(@Nonnull final String message, @Nullable final Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class CompiledValueExpression extends ValueExpression {
+        private static final long serialVersionUID = -3460829813549127504L;
+
+        @Nonnull
+        private final ValueExpression interpreted;
+        @Nullable
+        private final transient Term term;
+        private volatile boolean interpretOnly = false;
+
+        private CompiledValueExpression(@Nonnull final ValueExpression interpreted, @Nonnull final Term term) {
+            this.interpreted = interpreted;
+            this.term = term;
+        }
+
+        @Nullable
+        @Override
+        public Object getValue(@Nonnull final ELContext context) {
+            final VariableMapper variableMapper = context.getVariableMapper();
+            if (term != null && !interpretOnly && variableMapper instanceof ContextVariableMapper) {
+                try {
+                    return ELSupport.coerceToType(term.evaluate((ContextVariableMapper) variableMapper, context), interpreted.getExpectedType());
+                } catch (@Nonnull final InvocationFailure e) {
+                    throw e;
+                } catch (@Nonnull final RuntimeException e) {
+                    if (e == INTERPRET_ALWAYS) {
+                        interpretOnly = true;
+                    }
+                    //  let the interpreter produce the result, or the exception, it always has
+                }
+            }
+            return interpreted.getValue(context);
+        }
+
+        @Override
+        public void setValue(final ELContext context, final Object value) {
+            interpreted.setValue(context, value);
+        }
+
+        @Override
+        public boolean isReadOnly(final ELContext context) {
+            return interpreted.isReadOnly(context);
+        }
+
+        @Override
+        public Class<?> getType(final ELContext context) {
+            return interpreted.getType(context);
+        }
+
+        @Override
+        public Class<?> getExpectedType() {
+            return interpreted.getExpectedType();
+        }
+
+        @Override
+        public String getExpressionString() {
+            return interpreted.getExpressionString();
+        }
+
+        @Override
+        public boolean isLiteralText() {
+            return interpreted.isLiteralText();
+        }
+
+        @Override
+        public boolean equals(@Nullable final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            return interpreted.equals(((CompiledValueExpression) obj).interpreted);
+        }
+
+        @Override
+        public int hashCode() {
+            return interpreted.hashCode();
+        }
+    }
+
+    private static abstract class Term {
+        @Nullable
+        abstract Object evaluate(@Nonnull ContextVariableMapper variables, @Nonnull ELContext context);
+
+        boolean evaluateBoolean(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            return ELSupport.coerceToBoolean(evaluate(variables, context));
+        }
+    }
+
+    private static class Constant extends Term {
+        @Nullable
+        private final Object value;
+
+        private Constant(@Nullable final Object value) {
+            this.value = value;
+        }
+
+        @Nullable
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            return value;
+        }
+    }
+
+    private static class ContextVariable extends Term {
+        @Nonnull
+        private final String name;
+
+        private ContextVariable(@Nonnull final String name) {
+            this.name = name;
+        }
+
+        @Nullable
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            return variables.getValue(context, name);
+        }
+    }
+
+    private static class And extends Term {
+        @Nonnull
+        private final Term left;
+        @Nonnull
+        private final Term right;
+
+        private And(@Nonnull final Term left, @Nonnull final Term right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            return left.evaluateBoolean(variables, context) && right.evaluateBoolean(variables, context);
+        }
+    }
+
+    private static class Or extends Term {
+        @Nonnull
+        private final Term left;
+        @Nonnull
+        private final Term right;
+
+        private Or(@Nonnull final Term left, @Nonnull final Term right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            return left.evaluateBoolean(variables, context) || right.evaluateBoolean(variables, context);
+        }
+    }
+
+    private static class Not extends Term {
+        @Nonnull
+        private final Term operand;
+
+        private Not(@Nonnull final Term operand) {
+            this.operand = operand;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            return !operand.evaluateBoolean(variables, context);
+        }
+    }
+
+    private static class Empty extends Term {
+        @Nonnull
+        private final Term operand;
+
+        private Empty(@Nonnull final Term operand) {
+            this.operand = operand;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            final Object value = operand.evaluate(variables, context);
+            if (value == null) {
+                return Boolean.TRUE;
+            } else if (value instanceof String) {
+                return ((String) value).length() == 0;
+            } else if (value instanceof Object[]) {
+                return ((Object[]) value).length == 0;
+            } else if (value instanceof Collection) {
+                return ((Collection<?>) value).isEmpty();
+            } else if (value instanceof Map) {
+                return ((Map<?, ?>) value).isEmpty();
+            }
+            return Boolean.FALSE;
+        }
+    }
+
+    private static class Equal extends Term {
+        @Nonnull
+        private final Term left;
+        @Nonnull
+        private final Term right;
+        private final boolean equal;
+
+        private Equal(@Nonnull final Term left, @Nonnull final Term right, final boolean equal) {
+            this.left = left;
+            this.right = right;
+            this.equal = equal;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            return ELSupport.equals(left.evaluate(variables, context), right.evaluate(variables, context)) == equal;
+        }
+    }
+
+    private enum ComparisonOperator {
+        GREATER_THAN(false) {
+            @Override
+            boolean accept(final int comparison) {
+                return comparison > 0;
+            }
+        },
+        GREATER_THAN_OR_EQUAL(true) {
+            @Override
+            boolean accept(final int comparison) {
+                return comparison >= 0;
+            }
+        },
+        LESS_THAN(false) {
+            @Override
+            boolean accept(final int comparison) {
+                return comparison < 0;
+            }
+        },
+        LESS_THAN_OR_EQUAL(true) {
+            @Override
+            boolean accept(final int comparison) {
+                return comparison <= 0;
+            }
+        };
+
+        /**
+         * Whether identical operands (including two nulls) compare true without coercion
+         */
+        private final boolean reflexive;
+
+        ComparisonOperator(final boolean reflexive) {
+            this.reflexive = reflexive;
+        }
+
+        abstract boolean accept(int comparison);
+    }
+
+    private static class Comparison extends Term {
+        @Nonnull
+        private final Term left;
+        @Nonnull
+        private final Term right;
+        @Nonnull
+        private final ComparisonOperator operator;
+
+        private Comparison(@Nonnull final Term left, @Nonnull final Term right, @Nonnull final ComparisonOperator operator) {
+            this.left = left;
+            this.right = right;
+            this.operator = operator;
+        }
+
+        @Nonnull
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            final Object leftValue = left.evaluate(variables, context);
+            final Object rightValue = right.evaluate(variables, context);
+            if (operator.reflexive && leftValue == rightValue) {
+                return Boolean.TRUE;
+            }
+            if (leftValue == null || rightValue == null) {
+                return Boolean.FALSE;
+            }
+            return operator.accept(ELSupport.compare(leftValue, rightValue));
+        }
+    }
+
+    private static class Choice extends Term {
+        @Nonnull
+        private final Term condition;
+        @Nonnull
+        private final Term whenTrue;
+        @Nonnull
+        private final Term whenFalse;
+
+        private Choice(@Nonnull final Term condition, @Nonnull final Term whenTrue, @Nonnull final Term whenFalse) {
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Nullable
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            return condition.evaluateBoolean(variables, context)
+                    ? whenTrue.evaluate(variables, context)
+                    : whenFalse.evaluate(variables, context);
+        }
+    }
+
+    private static class Function extends Term {
+        @Nonnull
+        private final String name;
+        @Nonnull
+        private final Method method;
+        @Nonnull
+        private final Class<?>[] parameterTypes;
+        @Nonnull
+        private final Term[] arguments;
+
+        private Function(@Nonnull final String name, @Nonnull final Method method, @Nonnull final Term[] arguments) {
+            this.name = name;
+            this.method = method;
+            this.parameterTypes = method.getParameterTypes();
+            this.arguments = arguments;
+        }
+
+        @Nullable
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            final Object[] parameters = new Object[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                parameters[i] = ELSupport.coerceToType(arguments[i].evaluate(variables, context), parameterTypes[i]);
+            }
+            try {
+                return method.invoke(null, parameters);
+            } catch (@Nonnull final InvocationTargetException e) {
+                throw new InvocationFailure("Problems calling function '" + name + "'", e.getCause());
+            } catch (@Nonnull final Exception e) {
+                throw INTERPRET;
+            }
+        }
+    }
+
+    /**
+     * <code>base.a.b[c]</code>. Follows the standard resolvers, which read every non-list, non-array base (maps
+     * included) as a bean.
+     */
+    private static class PropertyChain extends Term {
+        @Nonnull
+        private final Term base;
+        @Nonnull
+        private final Term[] properties;
+        @Nonnull
+        private final PropertyReader[] readers;
+
+        private PropertyChain(@Nonnull final Term base, @Nonnull final Term[] properties, @Nonnull final PropertyReader[] readers) {
+            this.base = base;
+            this.properties = properties;
+            this.readers = readers;
+        }
+
+        @Nullable
+        @Override
+        Object evaluate(@Nonnull final ContextVariableMapper variables, @Nonnull final ELContext context) {
+            Object value = base.evaluate(variables, context);
+            if (value == null) {
+                throw INTERPRET;
+            }
+            for (int i = 0; i < properties.length && value != null; i++) {
+                final Object property = properties[i].evaluate(variables, context);
+                if (property == null) {
+                    throw INTERPRET;
+                }
+                value = readers[i].read(value, property.toString());
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Reads one property of a chain, remembering the accessor for the last type of bean seen, or that it has none.
+     */
+    private static class PropertyReader {
+        @Nullable
+        private volatile Accessor accessor;
+
+        @Nullable
+        Object read(@Nonnull final Object bean, @Nonnull final String property) {
+            if (bean instanceof List || bean.getClass().isArray()) {
+                throw INTERPRET;
+            }
+            Accessor current = accessor;
+            if (current == null || current.type != bean.getClass() || !current.property.equals(property)) {
+                current = new Accessor(bean.getClass(), property, findReadMethod(bean.getClass(), property));
+                accessor = current;
+            }
+            if (current.readMethod == null) {
+                throw INTERPRET_ALWAYS;
+            }
+            try {
+                return current.readMethod.invoke(bean);
+            } catch (@Nonnull final InvocationTargetException e) {
+                throw new InvocationFailure("Error reading '" + property + "' on type " + bean.getClass().getName(), e.getCause());
+            } catch (@Nonnull final Exception e) {
+                throw INTERPRET;
+            }
+        }
+
+        /**
+         * @return null if the interpreter must read the property
+         */
+        @Nullable
+        private static Method findReadMethod(@Nonnull final Class<?> type, @Nonnull final String property) {
+            if (!Modifier.isPublic(type.getModifiers())) {
+                //  the interpreter searches the interfaces and superclasses for an accessible method
+                return null;
+            }
+            final BeanInfo beanInfo;
+            try {
+                beanInfo = Introspector.getBeanInfo(type);
+            } catch (@Nonnull final IntrospectionException e) {
+                return null;
+            }
+            for (final PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+                if (descriptor.getName().equals(property) && descriptor.getReadMethod() != null) {
+                    return descriptor.getReadMethod();
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Accessor {
+        @Nonnull
+        private final Class<?> type;
+        @Nonnull
+        private final String property;
+        @Nullable
+        private final Method readMethod;
+
+        private Accessor(@Nonnull final Class<?> type, @Nonnull final String property, @Nullable final Method readMethod) {
+            this.type = type;
+            this.property = property;
+            this.readMethod = readMethod;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.indeed.proctor.common.model;
 
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collections;
@@ -27,6 +29,16 @@ public class ConsumableTestDefinition {
     private TestType testType;
     @Nullable
     private String description;
+    /**
+     * Null for tests that predate the field, which hash with {@link HashAlgorithm#MD5}
+     */
+    @Nullable
+    private HashAlgorithm hashAlgorithm;
+    /**
+     * Built on first use from {@link #buckets}; not part of the model
+     */
+    @Nullable
+    private volatile TestBucketIndex bucketIndex;
 
     public ConsumableTestDefinition() { /* intentionally empty */ }
 
@@ -85,6 +97,16 @@ public class ConsumableTestDefinition {
         this.salt = salt;
     }
 
+    @Nullable
+    @JsonSerialize(include=JsonSerialize.Inclusion.NON_NULL)
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public void setHashAlgorithm(@Nullable final HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
     @Nonnull
     public List<TestBucket> getBuckets() {
         return buckets;
@@ -92,6 +114,22 @@ public class ConsumableTestDefinition {
 
     public void setBuckets(@Nonnull final List<TestBucket> buckets) {
         this.buckets = buckets;
+        this.bucketIndex = null;
+    }
+
+    /**
+     * Same as scanning {@link #getBuckets()} for the first bucket with the given value, without the scan.
+     * The lookup table is built on first use, so the buckets should not be modified in place afterwards.
+     * @return the bucket with the given value, or null if there is none
+     */
+    @Nullable
+    public TestBucket findBucket(final int value) {
+        TestBucketIndex index = bucketIndex;
+        if (index == null) {
+            index = new TestBucketIndex(buckets);
+            bucketIndex = index;
+        }
+        return index.get(value);
     }
 
     @Nonnull
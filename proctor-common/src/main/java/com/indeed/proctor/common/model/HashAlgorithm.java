@@ -0,0 +1,18 @@
+package com.indeed.proctor.common.model;
+
+/**
+ * How the identifiers of a test are hashed into its ranges. Tests that do not name one use {@link #MD5}; changing the
+ * algorithm of a running test reshuffles all of its groups, just like changing its salt.
+ *
+ * Consumers built before the algorithm could be chosen ignore it and hash every test with {@link #MD5}, so while any
+ * of them still read the test matrix, a test using another algorithm puts the same identifier in different buckets
+ * depending on which consumer is asked. Only use another algorithm once every consumer of the matrix has been upgraded.
+ */
+public enum HashAlgorithm {
+    MD5,
+    /**
+     * 32-bit murmur3, much cheaper than {@link #MD5} and uniform enough for bucketing. Not understood by older
+     * consumers, which fall back to {@link #MD5}.
+     */
+    MURMUR3
+}
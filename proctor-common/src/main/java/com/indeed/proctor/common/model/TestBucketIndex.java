@@ -0,0 +1,92 @@
+package com.indeed.proctor.common.model;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the {@link TestBucket} of a test with a given value without scanning the buckets. Bucket values are usually a
+ * small dense range (-1, 0, 1, ...), which is indexed directly; otherwise the values are binary searched.
+ *
+ * If several buckets share a value, the first one wins, as it would in a scan. Index the reversed list for the last
+ * one to win instead.
+ */
+public class TestBucketIndex {
+    /**
+     * Largest span of bucket values indexed directly, rather than binary searched
+     */
+    private static final int MAX_DENSE_SPAN = 256;
+
+    private final int minValue;
+    /**
+     * Buckets indexed by value - {@link #minValue}, or null if the values are too sparse
+     */
+    @Nullable
+    private final TestBucket[] dense;
+    /**
+     * Distinct bucket values in ascending order, and their buckets, if the values are too sparse to index directly
+     */
+    @Nullable
+    private final int[] sortedValues;
+    @Nullable
+    private final TestBucket[] sortedBuckets;
+
+    public TestBucketIndex(@Nonnull final List<TestBucket> buckets) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (final TestBucket bucket : buckets) {
+            min = Math.min(min, bucket.getValue());
+            max = Math.max(max, bucket.getValue());
+        }
+        this.minValue = min;
+
+        if (buckets.isEmpty() || (long) max - (long) min >= MAX_DENSE_SPAN) {
+            final TestBucket[] sorted = buckets.toArray(new TestBucket[buckets.size()]);
+            //  stable, so the first of several buckets with the same value comes first
+            Arrays.sort(sorted, new Comparator<TestBucket>() {
+                @Override
+                public int compare(final TestBucket left, final TestBucket right) {
+                    return left.getValue() < right.getValue() ? -1 : (left.getValue() == right.getValue() ? 0 : 1);
+                }
+            });
+            int distinct = 0;
+            final int[] values = new int[sorted.length];
+            for (final TestBucket bucket : sorted) {
+                if (distinct == 0 || values[distinct - 1] != bucket.getValue()) {
+                    values[distinct] = bucket.getValue();
+                    sorted[distinct] = bucket;
+                    distinct++;
+                }
+            }
+            this.dense = null;
+            this.sortedValues = Arrays.copyOf(values, distinct);
+            this.sortedBuckets = Arrays.copyOf(sorted, distinct);
+        } else {
+            final TestBucket[] byValue = new TestBucket[max - min + 1];
+            for (final TestBucket bucket : buckets) {
+                final int index = bucket.getValue() - min;
+                if (byValue[index] == null) {
+                    byValue[index] = bucket;
+                }
+            }
+            this.dense = byValue;
+            this.sortedValues = null;
+            this.sortedBuckets = null;
+        }
+    }
+
+    /**
+     * @return the first bucket with the given value, or null if there is none
+     */
+    @Nullable
+    public TestBucket get(final int value) {
+        if (dense != null) {
+            final long index = (long) value - minValue;
+            return (index >= 0 && index < dense.length) ? dense[(int) index] : null;
+        }
+        final int index = Arrays.binarySearch(sortedValues, value);
+        return (index >= 0) ? sortedBuckets[index] : null;
+    }
+}
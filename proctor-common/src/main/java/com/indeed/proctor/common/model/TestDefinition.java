@@ -1,5 +1,7 @@
 package com.indeed.proctor.common.model;
 
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collections;
@@ -18,6 +20,11 @@ public class TestDefinition {
     private Map<String, Object> specialConstants = Collections.emptyMap();
     @Nonnull
     private String salt;
+    /**
+     * Null for tests that predate the field, which hash with {@link HashAlgorithm#MD5}
+     */
+    @Nullable
+    private HashAlgorithm hashAlgorithm;
     @Nullable
     private String rule;
     @Nonnull
@@ -116,6 +123,17 @@ public class TestDefinition {
         this.salt = salt;
     }
 
+    @Nullable
+    @JsonSerialize(include=JsonSerialize.Inclusion.NON_NULL)
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    public void setHashAlgorithm(@Nullable final HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
     @Nonnull
     public List<TestBucket> getBuckets() {
         return buckets;
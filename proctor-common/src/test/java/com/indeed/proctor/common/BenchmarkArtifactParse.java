@@ -0,0 +1,89 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.indeed.proctor.common.model.Allocation;
+import com.indeed.proctor.common.model.Audit;
+import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.Payload;
+import com.indeed.proctor.common.model.Range;
+import com.indeed.proctor.common.model.TestBucket;
+import com.indeed.proctor.common.model.TestMatrixArtifact;
+import com.indeed.proctor.common.model.TestType;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares parsing a large test matrix from JSON with decoding it from the binary format.
+ */
+public class BenchmarkArtifactParse {
+    public static void main(final String[] args) throws IOException {
+        final TestMatrixArtifact artifact = createArtifact(2000);
+
+        final StringWriter json = new StringWriter();
+        ProctorUtils.serializeArtifact(json, artifact);
+        final byte[] jsonBytes = json.toString().getBytes("UTF-8");
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        BinaryArtifacts.serialize(binary, artifact);
+        final byte[] binaryBytes = binary.toByteArray();
+        System.out.println("json: " + jsonBytes.length + " bytes, binary: " + binaryBytes.length + " bytes");
+
+        final ObjectMapper objectMapper = Serializers.lenient();
+        final int iterations = 50;
+        for (int round = 0; round < 3; round++) {
+            int sink = 0;
+            long elapsed = -System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += objectMapper.readValue(jsonBytes, TestMatrixArtifact.class).getTests().size();
+            }
+            elapsed += System.nanoTime();
+            System.out.println("json: " + iterations + " parses in " + (elapsed / 1000000) + " ms (average "
+                    + (elapsed / iterations / 1000) + " us/parse) " + sink);
+
+            sink = 0;
+            elapsed = -System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += BinaryArtifacts.deserialize(binaryBytes).getTests().size();
+            }
+            elapsed += System.nanoTime();
+            System.out.println("binary: " + iterations + " parses in " + (elapsed / 1000000) + " ms (average "
+                    + (elapsed / iterations / 1000) + " us/parse) " + sink);
+        }
+    }
+
+    private static TestMatrixArtifact createArtifact(final int testCount) {
+        final Audit audit = new Audit();
+        audit.setVersion(1);
+        audit.setUpdated(System.currentTimeMillis());
+        audit.setUpdatedBy("benchmark");
+
+        final Map<String, ConsumableTestDefinition> tests = Maps.newLinkedHashMap();
+        for (int i = 0; i < testCount; i++) {
+            final List<TestBucket> buckets = Lists.newArrayList();
+            for (int value = -1; value < 4; value++) {
+                final Payload payload = new Payload();
+                payload.setStringValue("payload" + value);
+                buckets.add(new TestBucket("bucket" + value, value, "Bucket " + value + " of test " + i, payload));
+            }
+            final List<Allocation> allocations = ImmutableList.of(
+                    new Allocation("${proctor:contains(COUNTRIES, country) && lang == 'en'}", ImmutableList.of(
+                            new Range(-1, 0.2), new Range(0, 0.2), new Range(1, 0.2), new Range(2, 0.2), new Range(3, 0.2))),
+                    new Allocation(null, ImmutableList.of(new Range(-1, 0.5), new Range(0, 0.5))));
+            final Map<String, Object> constants = Collections.<String, Object>singletonMap("COUNTRIES", ImmutableList.of("US", "CA", "GB"));
+            tests.put("benchmarktst" + i, new ConsumableTestDefinition(
+                    i, "${loggedIn}", TestType.USER, "benchmarktst" + i, buckets, allocations, constants, "Benchmark test " + i));
+        }
+
+        final TestMatrixArtifact artifact = new TestMatrixArtifact();
+        artifact.setAudit(audit);
+        artifact.setTests(tests);
+        return artifact;
+    }
+}
@@ -0,0 +1,55 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.ImmutableList;
+import com.indeed.proctor.common.model.Allocation;
+import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.HashAlgorithm;
+import com.indeed.proctor.common.model.Range;
+import com.indeed.proctor.common.model.TestBucket;
+import com.indeed.proctor.common.model.TestType;
+
+import java.util.Collections;
+
+/**
+ * Compares the MD5 hashers with the {@link HashAlgorithm#MURMUR3} hasher.
+ */
+public class BenchmarkHash {
+    public static void main(final String[] args) {
+        final String[] salts = { "benchmark", "&benchmark" };
+        final int iterations = 10 * 1000 * 1000;
+
+        final String[] identifiers = new String[1000];
+        for (int i = 0; i < identifiers.length; i++) {
+            identifiers[i] = "16v3oe2bo0" + i + "ag0";
+        }
+
+        for (int round = 0; round < 3; round++) {
+            for (final HashAlgorithm hashAlgorithm : HashAlgorithm.values()) {
+                for (final String salt : salts) {
+                    final StandardTestChooser.Hasher hasher = StandardTestChooser.newHasherFor(newSelector(salt, hashAlgorithm));
+
+                    int sink = 0;
+                    long elapsed = -System.nanoTime();
+                    for (int i = 0; i < iterations; i++) {
+                        sink += hasher.hash(identifiers[i % identifiers.length]);
+                    }
+                    elapsed += System.nanoTime();
+
+                    System.out.println(hashAlgorithm + " salt '" + salt + "': " + iterations + " hashes in " + (elapsed / 1000000) + " ms (average "
+                            + (elapsed / (double) iterations) + " ns/hash) " + sink);
+                }
+            }
+        }
+    }
+
+    private static TestRangeSelector newSelector(final String salt, final HashAlgorithm hashAlgorithm) {
+        final ConsumableTestDefinition testDefinition = new ConsumableTestDefinition();
+        testDefinition.setConstants(Collections.<String, Object>emptyMap());
+        testDefinition.setTestType(TestType.USER);
+        testDefinition.setSalt(salt);
+        testDefinition.setHashAlgorithm(hashAlgorithm);
+        testDefinition.setBuckets(ImmutableList.of(new TestBucket("control", 0, "control", null)));
+        testDefinition.setAllocations(ImmutableList.of(new Allocation(null, ImmutableList.of(new Range(0, 1.0)))));
+        return new TestRangeSelector(RuleEvaluator.EXPRESSION_FACTORY, RuleEvaluator.FUNCTION_MAPPER, "benchmarkTest", testDefinition);
+    }
+}
@@ -0,0 +1,155 @@
+package com.indeed.proctor.common;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.indeed.proctor.common.model.TestMatrixArtifact;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestAbstractProctorLoader {
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLoadAsyncPublishesNewProctor() throws Exception {
+        final GatedProctorLoader loader = new GatedProctorLoader();
+        loader.setMatrix(1);
+        final ListenableFuture<Proctor> nextProctor = loader.getNextProctor();
+        assertFalse(nextProctor.isDone());
+
+        assertTrue("first load should load", loader.loadAsync(executor).get(10, TimeUnit.SECONDS));
+        assertNotNull(loader.get());
+        assertSame(loader.get(), nextProctor.get(10, TimeUnit.SECONDS));
+        assertTrue(loader.getLastBuildMillis() >= 0);
+
+        assertFalse("unchanged matrix should not be reloaded", loader.loadAsync(executor).get(10, TimeUnit.SECONDS));
+        assertFalse(loader.getNextProctor().isDone());
+    }
+
+    @Test
+    public void testLoadAsyncCoalescesRunningLoads() throws Exception {
+        final GatedProctorLoader loader = new GatedProctorLoader();
+        loader.setMatrix(1);
+        loader.gate = new CountDownLatch(1);
+
+        final ListenableFuture<Boolean> first = loader.loadAsync(executor);
+        assertSame("a running load should be reused", first, loader.loadAsync(executor));
+        assertEquals(null, loader.get());
+
+        loader.gate.countDown();
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertEquals(1, loader.loads);
+
+        loader.setMatrix(2);
+        assertTrue("a finished load should not be reused", loader.loadAsync(executor).get(10, TimeUnit.SECONDS));
+        assertEquals(2, loader.loads);
+        assertEquals(2, loader.getLastAudit().getVersion());
+    }
+
+    @Test
+    public void testScheduledRunUsesReloadExecutor() throws Exception {
+        final GatedProctorLoader loader = new GatedProctorLoader();
+        loader.setMatrix(1);
+        loader.gate = new CountDownLatch(1);
+        loader.setReloadExecutor(executor);
+
+        //  returns while the reload is held up
+        loader.run();
+        loader.run();
+        final ListenableFuture<Boolean> reload = loader.loadAsync(executor);
+        assertEquals(null, loader.get());
+
+        loader.gate.countDown();
+        assertTrue(reload.get(10, TimeUnit.SECONDS));
+        assertNotNull(loader.get());
+        assertEquals("runs during a reload should not queue more", 1, loader.loads);
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        final GatedProctorLoader loader = new GatedProctorLoader();
+        loader.setMatrix(1);
+        assertTrue(loader.load());
+        assertEquals("warming up is disabled by default", -1, loader.getLastWarmUpMillis());
+
+        loader.setWarmUpIterations(20);
+        loader.setMatrix(2);
+        assertTrue(loader.load());
+        assertTrue(loader.getLastWarmUpMillis() >= 0);
+        assertEquals(2, loader.getLastAudit().getVersion());
+
+        loader.setWarmUpIterations(0);
+        assertEquals("warming up is disabled again", -1, loader.getLastWarmUpMillis());
+        loader.setMatrix(3);
+        assertTrue(loader.load());
+        assertEquals(-1, loader.getLastWarmUpMillis());
+    }
+
+    @Test
+    public void testLoadAsyncFailure() throws Exception {
+        final GatedProctorLoader loader = new GatedProctorLoader();
+        loader.matrixJson = "{ not json";
+        try {
+            loader.loadAsync(executor).get(10, TimeUnit.SECONDS);
+            fail("Expected the load to fail");
+        } catch (final ExecutionException expected) {
+            assertNotNull(loader.getLastLoadErrorMessage());
+        }
+    }
+
+    private static class GatedProctorLoader extends AbstractJsonProctorLoader {
+        private volatile String matrixJson;
+        private volatile CountDownLatch gate = null;
+        private volatile int loads = 0;
+
+        private GatedProctorLoader() {
+            super(GatedProctorLoader.class, new ProctorSpecification(), RuleEvaluator.FUNCTION_MAPPER);
+        }
+
+        private void setMatrix(final int version) {
+            matrixJson = "{ \"audit\" : { \"version\" : " + version + ", \"updated\" : 0, \"updatedBy\" : \"test\" }, \"tests\" : { } }";
+        }
+
+        @Override
+        TestMatrixArtifact loadTestMatrix() throws IOException {
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            loads++;
+            return loadJsonTestMatrix(new StringReader(matrixJson));
+        }
+
+        @Override
+        String getSource() {
+            return "test";
+        }
+    }
+}
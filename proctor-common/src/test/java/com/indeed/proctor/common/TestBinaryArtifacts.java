@@ -0,0 +1,175 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.indeed.proctor.common.model.Allocation;
+import com.indeed.proctor.common.model.Audit;
+import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.HashAlgorithm;
+import com.indeed.proctor.common.model.Payload;
+import com.indeed.proctor.common.model.Range;
+import com.indeed.proctor.common.model.TestBucket;
+import com.indeed.proctor.common.model.TestMatrixArtifact;
+import com.indeed.proctor.common.model.TestType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBinaryArtifacts {
+    @Test
+    public void testRoundTrip() throws IOException {
+        final TestMatrixArtifact artifact = createArtifact();
+        final byte[] bytes = serialize(artifact);
+        assertTrue(BinaryArtifacts.isBinaryArtifact(bytes));
+
+        final TestMatrixArtifact decoded = BinaryArtifacts.deserialize(bytes);
+        assertEquals(toJson(artifact), toJson(decoded));
+
+        //  constants keep the types JSON parsing would give them
+        final Map<String, Object> constants = decoded.getTests().get("withconstants").getConstants();
+        assertEquals(Integer.valueOf(3), constants.get("int"));
+        assertEquals(Long.valueOf(1L << 40), constants.get("long"));
+        assertEquals(Double.valueOf(0.5), constants.get("double"));
+        assertEquals(new BigInteger("123456789012345678901234567890"), constants.get("big"));
+        assertEquals(Boolean.TRUE, constants.get("flag"));
+        assertTrue(constants.containsKey("missing"));
+        assertNull(constants.get("missing"));
+        assertEquals(Arrays.<Object>asList("US", "CA"), constants.get("countries"));
+
+        assertEquals(HashAlgorithm.MURMUR3, decoded.getTests().get("withpayloads").getHashAlgorithm());
+        assertNull(decoded.getTests().get("withconstants").getHashAlgorithm());
+
+        //  repeated strings are decoded once, and shared
+        final ConsumableTestDefinition first = decoded.getTests().get("withpayloads");
+        final ConsumableTestDefinition second = decoded.getTests().get("withconstants");
+        assertSame(first.getAllocations().get(0).getRule(), second.getAllocations().get(0).getRule());
+        assertSame(first.getBuckets().get(0).getName(), second.getBuckets().get(0).getName());
+    }
+
+    @Test
+    public void testRoundTripOfParsedJson() throws IOException {
+        final String json = toJson(createArtifact());
+        final TestMatrixArtifact parsed = Serializers.lenient().readValue(json, TestMatrixArtifact.class);
+        assertEquals(json, toJson(BinaryArtifacts.deserialize(serialize(parsed))));
+    }
+
+    @Test
+    public void testDirectBuffer() throws IOException {
+        final TestMatrixArtifact artifact = createArtifact();
+        final byte[] bytes = serialize(artifact);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        assertEquals(toJson(artifact), toJson(BinaryArtifacts.deserialize(buffer)));
+    }
+
+    @Test
+    public void testJsonIsNotBinary() throws IOException {
+        assertFalse(BinaryArtifacts.isBinaryArtifact(toJson(createArtifact()).getBytes("UTF-8")));
+        assertFalse(BinaryArtifacts.isBinaryArtifact(new byte[0]));
+        try {
+            BinaryArtifacts.deserialize("{}".getBytes("UTF-8"));
+            fail("Expected JSON to be rejected");
+        } catch (final IOException expected) {
+            //  expected
+        }
+    }
+
+    @Test
+    public void testCorruptArtifactsAreRejected() throws IOException {
+        final byte[] bytes = serialize(createArtifact());
+
+        final byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+        try {
+            BinaryArtifacts.deserialize(truncated);
+            fail("Expected a truncated artifact to be rejected");
+        } catch (final IOException expected) {
+            //  expected
+        }
+
+        final byte[] otherVersion = bytes.clone();
+        otherVersion[7]++;
+        try {
+            BinaryArtifacts.deserialize(otherVersion);
+            fail("Expected an artifact of another format version to be rejected");
+        } catch (final IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("version"));
+        }
+    }
+
+    private static byte[] serialize(final TestMatrixArtifact artifact) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryArtifacts.serialize(out, artifact);
+        return out.toByteArray();
+    }
+
+    private static String toJson(final TestMatrixArtifact artifact) throws IOException {
+        final StringWriter writer = new StringWriter();
+        ProctorUtils.serializeArtifact(writer, artifact);
+        return writer.toString();
+    }
+
+    private static TestMatrixArtifact createArtifact() {
+        final Audit audit = new Audit();
+        audit.setVersion(1234);
+        audit.setUpdated(1380000000000L);
+        audit.setUpdatedBy("builder");
+
+        final Map<String, ConsumableTestDefinition> tests = Maps.newLinkedHashMap();
+
+        final Payload doubleArray = new Payload();
+        doubleArray.setDoubleArray(new Double[] { 1.5, null, -2.0 });
+        final Payload longValue = new Payload();
+        longValue.setLongValue(-42L);
+        final Payload stringArray = new Payload();
+        stringArray.setStringArray(new String[] { "a", null, "\u00e9\u4e2d" });
+        tests.put("withpayloads", createTest(TestType.USER, "salt", Collections.<String, Object>emptyMap(), ImmutableList.of(
+                new TestBucket("inactive", -1, "inactive", doubleArray),
+                new TestBucket("control", 0, null, longValue),
+                new TestBucket("test", 1, "test", stringArray),
+                new TestBucket("empty", 2, "empty", new Payload()))));
+        tests.get("withpayloads").setHashAlgorithm(HashAlgorithm.MURMUR3);
+
+        final Map<String, Object> constants = Maps.newLinkedHashMap();
+        constants.put("int", 3);
+        constants.put("long", 1L << 40);
+        constants.put("double", 0.5);
+        constants.put("big", new BigInteger("123456789012345678901234567890"));
+        constants.put("flag", true);
+        constants.put("missing", null);
+        constants.put("countries", Arrays.<Object>asList("US", "CA"));
+        final Map<String, Object> nested = Maps.newLinkedHashMap();
+        nested.put("list", Collections.emptyList());
+        constants.put("nested", nested);
+        tests.put("withconstants", createTest(TestType.PAGE, "constants", constants, ImmutableList.of(
+                new TestBucket("inactive", -1, "inactive"),
+                new TestBucket("control", 0, "control"))));
+
+        final TestMatrixArtifact artifact = new TestMatrixArtifact();
+        artifact.setAudit(audit);
+        artifact.setTests(tests);
+        return artifact;
+    }
+
+    private static ConsumableTestDefinition createTest(final TestType testType, final String salt, final Map<String, Object> constants, final List<TestBucket> buckets) {
+        final List<Allocation> allocations = ImmutableList.of(
+                new Allocation("${lang == 'en'}", ImmutableList.of(new Range(-1, 0.25), new Range(0, 0.75))),
+                new Allocation(null, ImmutableList.of(new Range(0, 1.0))));
+        return new ConsumableTestDefinition(3, "${loggedIn}", testType, salt, buckets, allocations, constants, "description of " + salt);
+    }
+}
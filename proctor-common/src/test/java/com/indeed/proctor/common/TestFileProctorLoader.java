@@ -0,0 +1,147 @@
+package com.indeed.proctor.common;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.indeed.proctor.common.model.TestMatrixArtifact;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestFileProctorLoader {
+    private File directory;
+    private File matrixFile;
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+        matrixFile = new File(directory, "proctor-matrix.json");
+    }
+
+    @After
+    public void tearDown() {
+        for (final File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testUnchangedMatrixIsNotReloaded() throws IOException {
+        final String matrixJson = createMatrixJson(1);
+        Files.write(matrixJson, matrixFile, Charsets.UTF_8);
+        final FileProctorLoader loader = new FileProctorLoader(new ProctorSpecification(), matrixFile, RuleEvaluator.FUNCTION_MAPPER);
+        assertTrue("first load should load", loader.load());
+        final Proctor proctor = loader.get();
+        assertFalse("unchanged file should not be reloaded", loader.load());
+
+        //  same contents, new modification time
+        assertTrue(matrixFile.setLastModified(matrixFile.lastModified() - 60000));
+        assertFalse("unchanged contents should not be reloaded", loader.load());
+        assertSame(proctor, loader.get());
+        assertEquals(matrixJson, loader.getFileContents());
+
+        Files.write(createMatrixJson(2), matrixFile, Charsets.UTF_8);
+        assertTrue("changed file should be loaded", loader.load());
+        assertEquals(2, loader.getLastAudit().getVersion());
+    }
+
+    @Test
+    public void testMappedFileLoader() throws IOException {
+        final String matrixJson = createMatrixJson(1);
+        Files.write(matrixJson, matrixFile, Charsets.UTF_8);
+        final FileProctorLoader fileLoader = new FileProctorLoader(new ProctorSpecification(), matrixFile, RuleEvaluator.FUNCTION_MAPPER);
+        assertTrue(fileLoader.load());
+        final String expectedMatrix = getTestMatrix(fileLoader.get());
+
+        final MappedFileProctorLoader jsonLoader = new MappedFileProctorLoader(new ProctorSpecification(), matrixFile, RuleEvaluator.FUNCTION_MAPPER);
+        assertTrue("mapped JSON file should load", jsonLoader.load());
+        assertEquals(expectedMatrix, getTestMatrix(jsonLoader.get()));
+        assertEquals(matrixJson, jsonLoader.getFileContents());
+        assertFalse("unchanged mapped file should not be reloaded", jsonLoader.load());
+
+        final TestMatrixArtifact artifact = Serializers.lenient().readValue(matrixJson, TestMatrixArtifact.class);
+        final FileOutputStream binaryOut = new FileOutputStream(matrixFile);
+        try {
+            BinaryArtifacts.serialize(binaryOut, artifact);
+        } finally {
+            binaryOut.close();
+        }
+        final MappedFileProctorLoader binaryLoader = new MappedFileProctorLoader(new ProctorSpecification(), matrixFile, RuleEvaluator.FUNCTION_MAPPER);
+        assertTrue("mapped binary file should load", binaryLoader.load());
+        assertEquals(expectedMatrix, getTestMatrix(binaryLoader.get()));
+        assertNull(binaryLoader.getFileContents());
+    }
+
+    @Test
+    public void testWatchedFileIsReloadedWhenReplaced() throws Exception {
+        final File replacementFile = new File(directory, "proctor-matrix.json.tmp");
+        Files.write(createMatrixJson(1), matrixFile, Charsets.UTF_8);
+        final FileProctorLoader loader = new FileProctorLoader(new ProctorSpecification(), matrixFile, RuleEvaluator.FUNCTION_MAPPER);
+        try {
+            assertTrue("first load should load", loader.load());
+            assertEquals(1, loader.getLastAudit().getVersion());
+
+            loader.startWatching(10, 50);
+            //  replace the file atomically, as a publish would; the size changes too, in case modification times are coarse
+            Files.write(createMatrixJson(20), replacementFile, Charsets.UTF_8);
+            assertTrue(replacementFile.renameTo(matrixFile));
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (loader.getLastAudit().getVersion() != 20 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("replaced file should be loaded without a scheduled run", 20, loader.getLastAudit().getVersion());
+        } finally {
+            loader.stopWatching();
+        }
+    }
+
+    @Test
+    public void testWatchedReloadCountsAsScheduledRun() throws Exception {
+        Files.write(createMatrixJson(1), matrixFile, Charsets.UTF_8);
+        final FileProctorLoader loader = new FileProctorLoader(new ProctorSpecification(), matrixFile, RuleEvaluator.FUNCTION_MAPPER);
+        try {
+            //  loaded directly, which the health check does not see
+            assertTrue(loader.load());
+            assertFalse(loader.isLoadedDataSuccessfullyRecently());
+
+            loader.startWatching(10, 50);
+            Files.write(createMatrixJson(20), matrixFile, Charsets.UTF_8);
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (! loader.isLoadedDataSuccessfullyRecently() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("a load triggered by the watcher should be recorded", loader.isLoadedDataSuccessfullyRecently());
+            assertEquals(20, loader.getLastAudit().getVersion());
+        } finally {
+            loader.stopWatching();
+        }
+    }
+
+    private static String getTestMatrix(final Proctor proctor) throws IOException {
+        final StringWriter writer = new StringWriter();
+        proctor.appendTestMatrix(writer);
+        return writer.toString();
+    }
+
+    private static String createMatrixJson(final int version) {
+        return "{ \"audit\" : { \"version\" : " + version + ", \"updated\" : 0, \"updatedBy\" : \"test\" }, \"tests\" : {"
+                + " \"example\" : { \"version\" : 1, \"salt\" : \"example\", \"testType\" : \"USER\", \"rule\" : \"${loggedIn}\","
+                + " \"constants\" : { \"COUNTRIES\" : [\"US\", \"CA\"] },"
+                + " \"buckets\" : [ { \"name\" : \"control\", \"value\" : 0 }, { \"name\" : \"test\", \"value\" : 1 } ],"
+                + " \"allocations\" : [ { \"rule\" : \"${proctor:contains(COUNTRIES, country)}\","
+                + " \"ranges\" : [ { \"bucketValue\" : 0, \"length\" : 0.5 }, { \"bucketValue\" : 1, \"length\" : 0.5 } ] } ] } } }";
+    }
+}
@@ -0,0 +1,151 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.indeed.proctor.common.model.Allocation;
+import com.indeed.proctor.common.model.Audit;
+import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.HashAlgorithm;
+import com.indeed.proctor.common.model.Payload;
+import com.indeed.proctor.common.model.Range;
+import com.indeed.proctor.common.model.TestBucket;
+import com.indeed.proctor.common.model.TestMatrixArtifact;
+import com.indeed.proctor.common.model.TestType;
+import org.junit.Test;
+
+import javax.el.FunctionMapper;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestProctor {
+    @Test
+    public void testReconstructReusesUnchangedTests() {
+        final FunctionMapper functionMapper = RuleEvaluator.defaultFunctionMapperBuilder().build();
+        final Proctor previous = Proctor.construct(createMatrix(), ProctorLoadResult.emptyResult(), functionMapper);
+
+        final TestMatrixArtifact changedMatrix = createMatrix();
+        final ConsumableTestDefinition changed = changedMatrix.getTests().get("changed");
+        changed.setVersion(2);
+        changed.setRule("${country == 'CA'}");
+        final Proctor reconstructed = Proctor.construct(changedMatrix, ProctorLoadResult.emptyResult(), functionMapper, previous);
+
+        for (final String testName : new String[] { "standard", "random" }) {
+            assertSame(testName + " should reuse its compiled rules",
+                    previous.getTestChooser(testName).getRules(), reconstructed.getTestChooser(testName).getRules());
+        }
+        assertNotSame(previous.getTestChooser("changed").getRules(), reconstructed.getTestChooser("changed").getRules());
+        assertSame(changed, reconstructed.getTestChooser("changed").getTestDefinition());
+
+        //  compiled rules are bound to the function mapper
+        final Proctor otherMapper = Proctor.construct(createMatrix(), ProctorLoadResult.emptyResult(), RuleEvaluator.defaultFunctionMapperBuilder().build(), previous);
+        assertNotSame(previous.getTestChooser("standard").getRules(), otherMapper.getTestChooser("standard").getRules());
+    }
+
+    @Test
+    public void testIsSameTestDefinition() {
+        assertTrue(Proctor.isSameTestDefinition(createTest(), createTest()));
+
+        final ConsumableTestDefinition payload = createTest();
+        payload.getBuckets().get(1).getPayload().setLongValue(2L);
+        assertFalse("payload", Proctor.isSameTestDefinition(createTest(), payload));
+
+        final ConsumableTestDefinition description = createTest();
+        description.getBuckets().get(1).setDescription("other");
+        assertFalse("bucket description", Proctor.isSameTestDefinition(createTest(), description));
+
+        final ConsumableTestDefinition rangeLength = createTest();
+        rangeLength.getAllocations().get(0).getRanges().get(0).setLength(0.4);
+        rangeLength.getAllocations().get(0).getRanges().get(1).setLength(0.6);
+        assertFalse("range length", Proctor.isSameTestDefinition(createTest(), rangeLength));
+
+        final ConsumableTestDefinition constants = createTest();
+        constants.setConstants(Collections.<String, Object>singletonMap("LIMIT", 6));
+        assertFalse("constants", Proctor.isSameTestDefinition(createTest(), constants));
+
+        final ConsumableTestDefinition hashAlgorithm = createTest();
+        hashAlgorithm.setHashAlgorithm(HashAlgorithm.MURMUR3);
+        assertFalse("hash algorithm", Proctor.isSameTestDefinition(createTest(), hashAlgorithm));
+    }
+
+    @Test
+    public void testResultMapsCanBeModified() {
+        final Proctor proctor = Proctor.construct(createMatrix(), ProctorLoadResult.emptyResult(), RuleEvaluator.FUNCTION_MAPPER);
+        final Map<String, Object> context = ImmutableMap.<String, Object>of("num", 1, "country", "US");
+        final ProctorResult result = proctor.determineTestGroups(Identifiers.of(TestType.USER, "user"), context, Collections.<String, Integer>emptyMap());
+
+        //  callers have always been able to adjust the maps of a result
+        final Map<String, TestBucket> buckets = result.getBuckets();
+        assertEquals(ImmutableSet.of("standard", "changed"), buckets.keySet());
+        final TestBucket forced = new TestBucket("forced", 5, "forced");
+        buckets.put("standard", forced);
+        buckets.remove("changed");
+        assertSame(buckets, result.getBuckets());
+        assertEquals(ImmutableMap.of("standard", forced), result.getBuckets());
+
+        final Map<String, Integer> versions = result.getTestVersions();
+        versions.put("extra", 7);
+        assertEquals(Integer.valueOf(7), versions.get("extra"));
+        assertNull("each call returns a new map", result.getTestVersions().get("extra"));
+
+        //  other results of the same Proctor are unaffected
+        final ProctorResult other = proctor.determineTestGroups(Identifiers.of(TestType.USER, "user"), context, Collections.<String, Integer>emptyMap());
+        assertEquals(ImmutableSet.of("standard", "changed"), other.getBuckets().keySet());
+        assertNull(other.getTestVersions().get("extra"));
+    }
+
+    @Test
+    public void testCopyOnWriteMapIteratorRemove() {
+        final Map<String, Integer> shared = ImmutableMap.of("a", 1, "b", 2, "c", 3);
+        final Map<String, Integer> map = new CopyOnWriteMap<String, Integer>(shared);
+        for (final Iterator<Map.Entry<String, Integer>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<String, Integer> entry = iterator.next();
+            if (entry.getValue() == 2) {
+                entry.setValue(20);
+            } else {
+                iterator.remove();
+            }
+        }
+        assertEquals(ImmutableMap.of("b", 20), map);
+        assertEquals(ImmutableMap.of("a", 1, "b", 2, "c", 3), shared);
+    }
+
+    private static TestMatrixArtifact createMatrix() {
+        final Audit audit = new Audit();
+        audit.setVersion(1);
+        audit.setUpdated(0);
+        audit.setUpdatedBy("test");
+
+        final Map<String, ConsumableTestDefinition> tests = Maps.newLinkedHashMap();
+        tests.put("standard", createTest());
+        final ConsumableTestDefinition random = createTest();
+        random.setTestType(TestType.RANDOM);
+        tests.put("random", random);
+        tests.put("changed", createTest());
+
+        final TestMatrixArtifact matrix = new TestMatrixArtifact();
+        matrix.setAudit(audit);
+        matrix.setTests(tests);
+        return matrix;
+    }
+
+    private static ConsumableTestDefinition createTest() {
+        final Payload payload = new Payload();
+        payload.setLongValue(1L);
+        return new ConsumableTestDefinition(1, "${num < LIMIT}", TestType.USER, "salt",
+                ImmutableList.of(new TestBucket("control", 0, "control"), new TestBucket("test", 1, "test", payload)),
+                ImmutableList.of(
+                        new Allocation("${country == 'US'}", ImmutableList.of(new Range(0, 0.5), new Range(1, 0.5))),
+                        new Allocation(null, ImmutableList.of(new Range(0, 1.0)))),
+                Collections.<String, Object>singletonMap("LIMIT", 5), "test");
+    }
+}
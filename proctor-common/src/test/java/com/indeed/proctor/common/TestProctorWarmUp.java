@@ -0,0 +1,82 @@
+package com.indeed.proctor.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.indeed.proctor.common.model.Allocation;
+import com.indeed.proctor.common.model.Audit;
+import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.Range;
+import com.indeed.proctor.common.model.TestBucket;
+import com.indeed.proctor.common.model.TestMatrixArtifact;
+import com.indeed.proctor.common.model.TestType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestProctorWarmUp {
+    @Test
+    public void testCreateValue() {
+        assertEquals(Boolean.TRUE, ProctorWarmUp.createValue("boolean", 0));
+        assertEquals(Boolean.FALSE, ProctorWarmUp.createValue("java.lang.Boolean", 1));
+        assertEquals(Integer.valueOf(3), ProctorWarmUp.createValue("int", 3));
+        assertEquals(Long.valueOf(3), ProctorWarmUp.createValue("Long", 3));
+        assertEquals(Double.valueOf(3), ProctorWarmUp.createValue("double", 3));
+        assertEquals("", ProctorWarmUp.createValue("String", 0));
+        assertEquals("warmup1", ProctorWarmUp.createValue("String", 1));
+
+        assertTrue(ProctorWarmUp.createValue("List<String>", 0) instanceof ArrayList);
+        assertTrue(ProctorWarmUp.createValue("java.util.Set<String>", 0) instanceof HashSet);
+        assertTrue(ProctorWarmUp.createValue("Map<String, Integer>", 0) instanceof HashMap);
+        assertTrue(ProctorWarmUp.createValue("Collection<String>", 0) instanceof ArrayList);
+
+        //  other types are never instantiated, nor even initialized
+        assertNull(ProctorWarmUp.createValue("java.lang.StringBuilder", 0));
+        assertNull(ProctorWarmUp.createValue("Object", 0));
+        assertNull(ProctorWarmUp.createValue(InitializationTracker.class.getName(), 0));
+        assertFalse(trackerInitialized);
+        assertNull(ProctorWarmUp.createValue("com.example.NoSuchType", 0));
+    }
+
+    private static volatile boolean trackerInitialized = false;
+
+    private static class InitializationTracker {
+        static {
+            trackerInitialized = true;
+        }
+    }
+
+    @Test
+    public void testRuleFailuresAreCounted() {
+        final ConsumableTestDefinition test = new ConsumableTestDefinition(1, "${country.missing == 'x'}", TestType.USER, "salt",
+                ImmutableList.of(new TestBucket("control", 0, "control")),
+                ImmutableList.of(new Allocation(null, ImmutableList.of(new Range(0, 1.0)))),
+                Collections.<String, Object>emptyMap(), "test");
+        final Audit audit = new Audit();
+        audit.setVersion(1);
+        final TestMatrixArtifact matrix = new TestMatrixArtifact();
+        matrix.setAudit(audit);
+        matrix.setTests(Maps.newHashMap(ImmutableMap.of("failing", test)));
+        final Proctor proctor = Proctor.construct(matrix, ProctorLoadResult.emptyResult(), RuleEvaluator.FUNCTION_MAPPER);
+
+        final Map<String, Object> context = ProctorWarmUp.createContext(ImmutableMap.of("country", "String"), 0);
+        assertEquals(1, proctor.determineTestGroupsForWarmUp(new Identifiers(TestType.USER, "warmup"), context));
+        ProctorWarmUp.warmUp(proctor, ImmutableMap.of("country", "String"), 10);
+    }
+
+    @Test
+    public void testCreateContext() {
+        final Map<String, String> providedContext = ImmutableMap.of("loggedIn", "boolean", "country", "String", "accountId", "int");
+        final Map<String, Object> context = ProctorWarmUp.createContext(providedContext, 2);
+        assertEquals(ImmutableMap.<String, Object>of("loggedIn", true, "country", "", "accountId", 2), context);
+    }
+}
@@ -81,11 +81,47 @@ public class TestRandomTestChooser {
         assertTrue(found[2] < 400);
     }
 
+    @Test
+    public void testSeededChoosersAreDeterministic() {
+        final List<Range> ranges = Lists.newArrayList(new Range(0, 0.25), new Range(1, 0.0), new Range(2, 0.75));
+        final List<TestBucket> buckets = Lists.newArrayList(new TestBucket("inactive", 0, "zoot", null), new TestBucket("control", 1, "zoot", null), new TestBucket("test", 2, "zoot", null));
+
+        final RandomTestChooser first = initializeRandomTestChooser(ranges, buckets, 42L);
+        final RandomTestChooser second = initializeRandomTestChooser(ranges, buckets, 42L);
+
+        int[] found = { 0, 0, 0 };
+        final Map<String, Object> values = Collections.emptyMap();
+        for (int i = 0; i < 1000; i++) {
+            final TestBucket chosen = first.choose(null, values);
+            assertNotNull(chosen);
+            assertEquals(chosen, second.choose(null, values));
+            found[chosen.getValue()]++;
+        }
+
+        assertTrue(found[0] > 150);
+        assertTrue(found[0] < 350);
+        assertEquals("empty range should never be chosen", 0, found[1]);
+    }
+
     static RandomTestChooser initializeRandomTestChooser(final List<Range> ranges, final List<TestBucket> buckets) {
         final ExpressionFactory expressionFactory = new ExpressionFactoryImpl();
 
         final FunctionMapper functionMapper = RuleEvaluator.FUNCTION_MAPPER;
 
+        final RandomTestChooser rtc = new RandomTestChooser(expressionFactory, functionMapper, "testName", createTestDefinition(ranges, buckets));
+        return rtc;
+    }
+
+    static RandomTestChooser initializeRandomTestChooser(final List<Range> ranges, final List<TestBucket> buckets, final long seed) {
+        final ExpressionFactory expressionFactory = new ExpressionFactoryImpl();
+
+        final FunctionMapper functionMapper = RuleEvaluator.FUNCTION_MAPPER;
+
+        final RandomTestChooser rtc = new RandomTestChooser(seed, expressionFactory, functionMapper, "testName", createTestDefinition(ranges, buckets));
+        return rtc;
+    }
+
+    private static ConsumableTestDefinition createTestDefinition(final List<Range> ranges, final List<TestBucket> buckets) {
         final ConsumableTestDefinition testDefinition = new ConsumableTestDefinition();
         testDefinition.setConstants(Collections.<String, Object>emptyMap());
 
@@ -94,8 +130,6 @@ public class TestRandomTestChooser {
         final List<Allocation> allocations = Lists.newArrayList();
         allocations.add(new Allocation("${}", ranges));
         testDefinition.setAllocations(allocations);
-
-        final RandomTestChooser rtc = new RandomTestChooser(expressionFactory, functionMapper, "testName", testDefinition);
-        return rtc;
+        return testDefinition;
     }
 }
@@ -1,11 +1,18 @@
 package com.indeed.proctor.common;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.el.ELException;
+import javax.el.ValueExpression;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -110,5 +117,161 @@ public class TestRuleEvaluator {
         }
     }
 
+    @Test
+    public void testCompiledRuleIsReusedAcrossContexts() {
+        final ValueExpression compiledRule = ruleEvaluator.compileBooleanRule("${proctor:contains(LANGUAGES_ENABLED, lang) && level > 2}");
+        {
+            final Map<String, Object> values = ImmutableMap.<String, Object>of("lang", "en", "level", 3);
+            Assert.assertTrue("compiled rule should be true for " + values, ruleEvaluator.evaluateCompiledRule(compiledRule, values));
+        }
+        {
+            final Map<String, Object> values = ImmutableMap.<String, Object>of("lang", "it", "level", 3);
+            Assert.assertFalse("compiled rule should be false for " + values, ruleEvaluator.evaluateCompiledRule(compiledRule, values));
+        }
+        {
+            final Map<String, Object> values = ImmutableMap.<String, Object>of("lang", "fr", "level", 1);
+            Assert.assertFalse("compiled rule should be false for " + values, ruleEvaluator.evaluateCompiledRule(compiledRule, values));
+        }
+    }
+
+    @Test
+    public void testCompiledLiteralRules() {
+        final Map<String, Object> values = Collections.emptyMap();
+        for (final String rule : new String[] { null, "", "${}", "${ }", "${true}", "${TRUE}" }) {
+            Assert.assertTrue("compiled rule '" + rule + "' should be true", ruleEvaluator.evaluateCompiledRule(ruleEvaluator.compileBooleanRule(rule), values));
+        }
+        for (final String rule : new String[] { "${false}", "${FALSE}", "true", "false" }) {
+            Assert.assertFalse("compiled rule '" + rule + "' should be false", ruleEvaluator.evaluateCompiledRule(ruleEvaluator.compileBooleanRule(rule), values));
+        }
+    }
+
+    @Test
+    public void testNullContextValueIsResolved() {
+        final Map<String, Object> values = Collections.<String, Object>singletonMap("lang", null);
+        final String rule = "${empty lang}";
+        Assert.assertTrue("rule '" + rule + "' should be true for " + values, ruleEvaluator.evaluateBooleanRule(rule, values));
+        Assert.assertTrue("compiled rule '" + rule + "' should be true for " + values, ruleEvaluator.evaluateCompiledRule(ruleEvaluator.compileBooleanRule(rule), values));
+    }
+
+    @Test
+    public void testCompiledRulesMatchInterpretedRules() {
+        final String[] rules = new String[] {
+                "${lang == 'en'}",
+                "${lang != 'en' || level >= 3}",
+                "${!(level < 2) && level <= 4}",
+                "${level > 2.5 ? lang == 'fr' : empty lang}",
+                "${empty missing}",
+                "${proctor:contains(LANGUAGES_ENABLED, lang) and not fn:startsWith(lang, 'e')}",
+                "${fn:length(lang) eq 2}",
+                "${user.level gt 1 && user.name == 'sam'}",
+                "${user['name'] == lang}",
+                "${user.nosuchproperty == 1}",
+                "${nobody.level > 1}",
+                "${level}",
+                "${lang}",
+                "${LANGUAGES_ENABLED[0] == lang}",
+        };
+        final List<Map<String, Object>> contexts = ImmutableList.<Map<String, Object>>of(
+                ImmutableMap.<String, Object>of("lang", "en", "level", 3, "user", new User("sam", 2)),
+                //  left to the interpreter from here on by rules reading user
+                ImmutableMap.<String, Object>of("lang", "de", "level", 2, "user", new HiddenUser("de", 3)),
+                ImmutableMap.<String, Object>of("lang", "fr", "level", 1L, "user", new User("fr", 0)),
+                ImmutableMap.<String, Object>of("lang", "", "level", "4", "missing", Collections.emptyList()),
+                Collections.<String, Object>singletonMap("level", null)
+        );
+        for (final String rule : rules) {
+            final ValueExpression compiledRule = ruleEvaluator.compileBooleanRule(rule);
+            for (final Map<String, Object> values : contexts) {
+                final String interpreted = evaluateOrDescribeFailure(rule, null, values);
+                final String compiled = evaluateOrDescribeFailure(rule, compiledRule, values);
+                Assert.assertEquals("compiled rule '" + rule + "' should match the interpreted rule for " + values, interpreted, compiled);
+            }
+        }
+    }
+
+    @Test
+    public void testConstantRulesAreFolded() {
+        for (final String rule : new String[] { "${}", "${!empty LANGUAGES_ENABLED}", "${1 < 2 || lang == 'en'}", "${empty LANGUAGES_ENABLED ? lang == 'en' : true}" }) {
+            Assert.assertEquals("rule '" + rule + "' should always be true", Boolean.TRUE, ruleEvaluator.getConstantResult(ruleEvaluator.compileBooleanRule(rule)));
+        }
+        for (final String rule : new String[] { "${false}", "${empty LANGUAGES_ENABLED && lang == 'en'}", "${'a' > 'b'}", "malformed" }) {
+            Assert.assertEquals("rule '" + rule + "' should always be false", Boolean.FALSE, ruleEvaluator.getConstantResult(ruleEvaluator.compileBooleanRule(rule)));
+        }
+        for (final String rule : new String[] { "${lang == 'en'}", "${proctor:contains(LANGUAGES_ENABLED, 'en')}", "${true && lang == 'en'}", "${1 + 2 > 1}" }) {
+            Assert.assertNull("rule '" + rule + "' should not be constant", ruleEvaluator.getConstantResult(ruleEvaluator.compileBooleanRule(rule)));
+        }
+    }
 
+    @Test
+    public void testRulesAreInterpretedWhenCompilingIsOff() {
+        final Map<String, Object> testConstants = Collections.<String, Object>singletonMap("LANGUAGES_ENABLED", Lists.newArrayList("en", "fr", "de"));
+        final RuleEvaluator interpreter = new RuleEvaluator(RuleEvaluator.EXPRESSION_FACTORY, RuleEvaluator.FUNCTION_MAPPER, testConstants, false);
+        final String rule = "${!empty LANGUAGES_ENABLED && proctor:contains(LANGUAGES_ENABLED, lang)}";
+        final ValueExpression interpretedRule = interpreter.compileBooleanRule(rule);
+        Assert.assertFalse("rule '" + rule + "' should be left to the interpreter", ruleEvaluator.compileBooleanRule(rule).getClass().equals(interpretedRule.getClass()));
+        Assert.assertNull("interpreted rule '" + rule + "' should not be folded", interpreter.getConstantResult(interpreter.compileBooleanRule("${!empty LANGUAGES_ENABLED}")));
+        Assert.assertTrue(interpreter.evaluateCompiledRule(interpretedRule, Collections.<String, Object>singletonMap("lang", "fr")));
+        Assert.assertFalse(interpreter.evaluateCompiledRule(interpretedRule, Collections.<String, Object>singletonMap("lang", "es")));
+    }
+
+    @Test
+    public void testFailingAccessorIsCalledOnce() {
+        final ValueExpression compiledRule = ruleEvaluator.compileBooleanRule("${user.level > 1 && user.failure}");
+        final FailingUser user = new FailingUser();
+        try {
+            ruleEvaluator.evaluateCompiledRule(compiledRule, Collections.<String, Object>singletonMap("user", user));
+            Assert.fail("compiled rule should fail like the interpreted rule");
+        } catch (@Nonnull final ELException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals("failing accessor should not be called again by the interpreter", 1, user.failures);
+    }
+
+    @Nonnull
+    private String evaluateOrDescribeFailure(@Nonnull final String rule, @Nullable final ValueExpression compiledRule, @Nonnull final Map<String, Object> values) {
+        try {
+            return String.valueOf(compiledRule == null
+                    ? ruleEvaluator.evaluateBooleanRule(rule, values)
+                    : ruleEvaluator.evaluateCompiledRule(compiledRule, values));
+        } catch (@Nonnull final RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    public static class User {
+        private final String name;
+        private final int level;
+
+        public User(final String name, final int level) {
+            this.name = name;
+            this.level = level;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+    }
+
+    private static class HiddenUser extends User {
+        private HiddenUser(final String name, final int level) {
+            super(name, level);
+        }
+    }
+
+    public static class FailingUser extends User {
+        private int failures = 0;
+
+        public FailingUser() {
+            super("sam", 2);
+        }
+
+        public boolean getFailure() {
+            failures++;
+            throw new IllegalStateException("failure " + failures);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.indeed.proctor.common;
 
 import com.indeed.proctor.common.model.Allocation;
+import com.indeed.proctor.common.model.HashAlgorithm;
 import com.indeed.proctor.common.model.TestBucket;
 import com.indeed.proctor.common.model.TestDefinition;
 import com.indeed.proctor.common.model.TestType;
@@ -46,6 +47,20 @@ public class TestSerializers {
         }
     }
 
+    @Test
+    public void testHashAlgorithm() throws IOException {
+        final ObjectMapper mapper = Serializers.strict();
+        final TestDefinition definition = mapper.readValue(getClass().getResourceAsStream(EXAMPLE_TEST_DEFINITION), TestDefinition.class);
+        Assert.assertNull(definition.getHashAlgorithm());
+        // definitions without one are written exactly as before
+        Assert.assertFalse(mapper.writeValueAsString(definition).contains("hashAlgorithm"));
+
+        definition.setHashAlgorithm(HashAlgorithm.MURMUR3);
+        final TestDefinition parsed = mapper.readValue(mapper.writeValueAsString(definition), TestDefinition.class);
+        Assert.assertEquals(HashAlgorithm.MURMUR3, parsed.getHashAlgorithm());
+        Assert.assertEquals(HashAlgorithm.MURMUR3, ProctorUtils.convertToConsumableTestDefinition(parsed).getHashAlgorithm());
+    }
+
     private void doTest(final String resourceName, final ObjectMapper mapper) throws IOException {
         final InputStream input = getClass().getResourceAsStream(resourceName);
         Assert.assertNotNull("Input stream for " + resourceName + " should not be null", input);
@@ -1,9 +1,13 @@
 package com.indeed.proctor.common;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.indeed.proctor.common.model.Allocation;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
+import com.indeed.proctor.common.model.HashAlgorithm;
 import com.indeed.proctor.common.model.Range;
 import com.indeed.proctor.common.model.TestBucket;
 import com.indeed.proctor.common.model.TestType;
@@ -13,14 +17,17 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.annotation.Nonnull;
 import javax.el.ExpressionFactory;
 import javax.el.FunctionMapper;
+import java.security.MessageDigest;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author rboyer
@@ -151,6 +158,124 @@ public class TestStandardTestChooser {
         Assert.assertEquals("bucket1 hash", HASH_BUCKET1_SALT_AMP_TESTNAME, hashes[1]);
     }
 
+    @Test
+    public void testHashMatchesDigestOfEncodedIdentifier() {
+        final StandardTestChooser.Hasher hasher = StandardTestChooser.newHasherFor(
+                new TestRangeSelector(expressionFactory, functionMapper, testName, testDefinition));
+        final String longIdentifier = Strings.repeat("0123456789abcdef", 20);
+        for (final String identifier : new String[] { "", "12345", "caf\u00e9", "\u4e2d\u6587", "\ud83d\ude00", "unpaired\ud83d", longIdentifier, "x" }) {
+            final MessageDigest md = ProctorUtils.createMessageDigest();
+            md.update((testName + "|" + testDefinition.getSalt()).getBytes(Charsets.UTF_8));
+            md.update(identifier.getBytes(Charsets.UTF_8));
+            final byte[] digest = md.digest();
+            final int expected = (0xff & digest[12]) << 24 | (0xff & digest[13]) << 16 | (0xff & digest[14]) << 8 | (0xff & digest[15]);
+            assertEquals("hash of '" + identifier + "'", expected, hasher.hash(identifier));
+        }
+    }
+
+    @Test
+    public void testFastHashIsUniform() {
+        testDefinition.setHashAlgorithm(HashAlgorithm.MURMUR3);
+        for (final String salt : new String[] { testName, "&" + testName }) {
+            testDefinition.setSalt(salt);
+            final StandardTestChooser.Hasher hasher = StandardTestChooser.newHasherFor(
+                    new TestRangeSelector(expressionFactory, functionMapper, testName, testDefinition));
+
+            // sequential identifiers into 64 equal ranges of the int space
+            final int bins = 64;
+            final int num = 1000000;
+            final int[] binCounts = new int[bins];
+            for (int accountId = 1; accountId <= num; accountId++) {
+                binCounts[hasher.hash(String.valueOf(accountId)) >>> 26]++;
+            }
+            final double expected = num / (double) bins;
+            double chiSquare = 0;
+            for (final int binCount : binCounts) {
+                chiSquare += (binCount - expected) * (binCount - expected) / expected;
+            }
+            // critical value for 63 degrees of freedom at p = 0.001
+            Assert.assertTrue("salt '" + salt + "' should hash uniformly; chi-square " + chiSquare, chiSquare < 103.4);
+        }
+    }
+
+    @Test
+    public void testFastHashSplitsEvenly() {
+        testDefinition.setHashAlgorithm(HashAlgorithm.MURMUR3);
+        final StandardTestChooser chooser = newChooser();
+        exerciseChooser(chooser);
+
+        final int num = counts[0] + counts[1];
+        Assert.assertEquals("bucket0 share", 0.5, counts[0] / (double) num, 0.001);
+    }
+
+    @Test
+    public void testExistingSaltsKeepMD5() {
+        // salts that once selected the fast hasher by prefix are ordinary salts again
+        for (final String salt : new String[] { "^" + testName, "^&" + testName }) {
+            testDefinition.setSalt(salt);
+            final StandardTestChooser.Hasher hasher = StandardTestChooser.newHasherFor(
+                    new TestRangeSelector(expressionFactory, functionMapper, testName, testDefinition));
+            final String hashedSalt = StandardTestChooser.isSaltOnly(testDefinition) ? salt : testName + "|" + salt;
+            final MessageDigest md = ProctorUtils.createMessageDigest();
+            md.update(hashedSalt.getBytes(Charsets.UTF_8));
+            md.update("12345".getBytes(Charsets.UTF_8));
+            final byte[] digest = md.digest();
+            final int expected = (0xff & digest[12]) << 24 | (0xff & digest[13]) << 16 | (0xff & digest[14]) << 8 | (0xff & digest[15]);
+            assertEquals("hash with salt '" + salt + "'", expected, hasher.hash("12345"));
+        }
+    }
+
+    @Test
+    public void testFindRangeMatchesLinearScan() {
+        final int[][] cutoffArrays = {
+                {},
+                {0},
+                {-5, -5, 10, 10, 10, Integer.MAX_VALUE},
+                {Integer.MIN_VALUE, Integer.MIN_VALUE, -1, 7},
+        };
+        final int[] values = { Integer.MIN_VALUE, -6, -5, -4, -1, 0, 1, 7, 8, 9, 10, 11, Integer.MAX_VALUE };
+        for (final int[] cutoffs : cutoffArrays) {
+            for (final int value : values) {
+                int expected;
+                for (expected = 0; expected < cutoffs.length && value > cutoffs[expected]; expected++) { /* intentionally empty */ }
+                assertEquals("range of " + value, expected, StandardTestChooser.findRange(cutoffs, value));
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicateBucketValuesResolveAsBefore() {
+        final TestBucket first = new TestBucket("first", 1, "first", null);
+        final TestBucket second = new TestBucket("second", 1, "second", null);
+        testDefinition.setBuckets(ImmutableList.of(
+                new TestBucket("inactive", -1, "zoot", null),
+                first,
+                new TestBucket("control", 0, "zoot", null),
+                second
+        ));
+        updateAllocations(RANGES_100_0);
+        final StandardTestChooser chooser = newChooser();
+
+        // ranges used to be resolved through a map from value to bucket, filled in order
+        final Map<Integer, TestBucket> valueToBucket = Maps.newHashMap();
+        for (final TestBucket bucket : testDefinition.getBuckets()) {
+            valueToBucket.put(bucket.getValue(), bucket);
+        }
+        assertSame(valueToBucket.get(1), chooser.choose("identifier", Collections.<String, Object>emptyMap()));
+        assertSame(second, chooser.choose("identifier", Collections.<String, Object>emptyMap()));
+
+        // forced groups used to scan the buckets for the first match
+        TestBucket scanned = null;
+        for (final TestBucket bucket : testDefinition.getBuckets()) {
+            if (bucket.getValue() == 1) {
+                scanned = bucket;
+                break;
+            }
+        }
+        assertSame(scanned, chooser.getTestBucket(1));
+        assertSame(first, chooser.getTestBucket(1));
+    }
+
     @Test
     public void testExceptionsDealtWith() {
         final String testName = "test";
@@ -193,6 +318,60 @@ public class TestStandardTestChooser {
         EasyMock.verify(ruleEvaluator);
     }
 
+    @Test
+    public void testSharedRuleEvaluatedOncePerContext() {
+        testDefinition.setRule("${user.level > 1}");
+        final RuleInterner ruleInterner = new RuleInterner();
+        final StandardTestChooser first = new StandardTestChooser(expressionFactory, functionMapper, "first", testDefinition, ruleInterner, -1);
+        final StandardTestChooser second = new StandardTestChooser(expressionFactory, functionMapper, "second", testDefinition, ruleInterner, -1);
+        // the test rule and the allocation rule
+        assertEquals(2, ruleInterner.size());
+
+        final CountingUser user = new CountingUser();
+        final RuleEvaluationContext context = new RuleEvaluationContext(Collections.<String, Object>singletonMap("user", user), ruleInterner.size(), 0);
+        assertNotNull(first.choose("identifier", context));
+        assertNotNull(second.choose("identifier", context));
+        assertEquals("shared rule should be evaluated once", 1, user.getLevelCalls);
+
+        // a different constant bound by the rule makes it a different rule
+        testDefinition.setRule("${user.level > minLevel}");
+        testDefinition.setConstants(Collections.<String, Object>singletonMap("minLevel", 1));
+        new StandardTestChooser(expressionFactory, functionMapper, "third", testDefinition, ruleInterner, -1);
+        testDefinition.setConstants(Collections.<String, Object>singletonMap("minLevel", 2));
+        new StandardTestChooser(expressionFactory, functionMapper, "fourth", testDefinition, ruleInterner, -1);
+        assertEquals(4, ruleInterner.size());
+    }
+
+    @Test
+    public void testLinkedTestsHashOncePerContext() {
+        final int[] hashCalls = new int[1];
+        final StandardTestChooser.Hasher hasher = new StandardTestChooser.Hasher() {
+            @Override
+            public int hash(@Nonnull final String identifier) {
+                hashCalls[0]++;
+                return identifier.hashCode();
+            }
+        };
+        final RuleEvaluationContext context = new RuleEvaluationContext(Collections.<String, Object>emptyMap(), 0, 1);
+        assertEquals("a".hashCode(), context.hash(0, "a", hasher));
+        assertEquals("a".hashCode(), context.hash(0, "a", hasher));
+        assertEquals(1, hashCalls[0]);
+        assertEquals("b".hashCode(), context.hash(0, "b", hasher));
+        assertEquals(2, hashCalls[0]);
+        // not linked
+        context.hash(-1, "b", hasher);
+        assertEquals(3, hashCalls[0]);
+    }
+
+    public static class CountingUser {
+        private int getLevelCalls = 0;
+
+        public int getLevel() {
+            getLevelCalls++;
+            return 2;
+        }
+    }
+
     private StandardTestChooser newChooser() {
         return new StandardTestChooser(
                 expressionFactory,
@@ -0,0 +1,142 @@
+package com.indeed.proctor.common;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestUrlProctorLoader {
+    private static final String LAST_MODIFIED = "Tue, 15 Nov 1994 12:45:26 GMT";
+
+    private HttpServer server;
+    private MatrixHandler handler;
+    private UrlProctorLoader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        handler = new MatrixHandler();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/matrix.json", handler);
+        server.start();
+        final URL url = new URL("http", "localhost", server.getAddress().getPort(), "/matrix.json");
+        loader = new UrlProctorLoader(new ProctorSpecification(), url, RuleEvaluator.FUNCTION_MAPPER);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testUnchangedMatrixIsNotDownloaded() {
+        handler.setMatrix(1, "\"v1\"");
+        assertTrue("first load should load", loader.load());
+        assertEquals(1, loader.getLastAudit().getVersion());
+        assertEquals("gzip", handler.acceptEncoding);
+        assertEquals(null, handler.ifNoneMatch);
+        assertEquals(1, handler.bodiesSent);
+
+        assertFalse("unchanged matrix should not be reloaded", loader.load());
+        assertEquals("\"v1\"", handler.ifNoneMatch);
+        assertEquals(LAST_MODIFIED, handler.ifModifiedSince);
+        assertEquals("unchanged matrix should not be downloaded", 1, handler.bodiesSent);
+
+        handler.setMatrix(2, "\"v2\"");
+        assertTrue("changed matrix should be loaded", loader.load());
+        assertEquals(2, loader.getLastAudit().getVersion());
+        assertEquals(2, handler.bodiesSent);
+
+        assertFalse(loader.load());
+        assertEquals("\"v2\"", handler.ifNoneMatch);
+    }
+
+    @Test
+    public void testUnconditionalServer() {
+        handler.setMatrix(1, "\"v1\"");
+        handler.conditional = false;
+        assertTrue("first load should load", loader.load());
+        assertFalse("same ETag should not be reloaded", loader.load());
+        assertEquals(2, handler.bodiesSent);
+    }
+
+    @Test
+    public void testErrorResponse() {
+        handler.setMatrix(1, "\"v1\"");
+        handler.status = 503;
+        try {
+            loader.load();
+            fail("Expected an error response to fail the load");
+        } catch (final RuntimeException expected) {
+            assertNotNull(loader.getLastLoadErrorMessage());
+        }
+        try {
+            loader.load();
+            fail("Expected an error response to fail the load");
+        } catch (final RuntimeException expected) {
+            //  expected
+        }
+
+        handler.status = 200;
+        assertTrue("the server's recovery should be loaded", loader.load());
+        assertEquals(1, loader.getLastAudit().getVersion());
+    }
+
+    private static class MatrixHandler implements HttpHandler {
+        private volatile byte[] matrix;
+        private volatile String eTag;
+        private volatile boolean conditional = true;
+        private volatile int status = 200;
+        private volatile int bodiesSent = 0;
+        private volatile String acceptEncoding;
+        private volatile String ifNoneMatch;
+        private volatile String ifModifiedSince;
+
+        private void setMatrix(final int version, final String eTag) {
+            this.matrix = ("{ \"audit\" : { \"version\" : " + version + ", \"updated\" : 0, \"updatedBy\" : \"test\" }, \"tests\" : { } }").getBytes(Charsets.UTF_8);
+            this.eTag = eTag;
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+
+            if (status != 200) {
+                final byte[] error = "unavailable".getBytes(Charsets.UTF_8);
+                exchange.sendResponseHeaders(status, error.length);
+                exchange.getResponseBody().write(error);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", eTag);
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            if (conditional && eTag.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            final OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+            out.write(matrix);
+            out.close();
+            bodiesSent++;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.indeed.proctor.common.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestTestBucketIndex {
+    @Test
+    public void testDenseValues() {
+        final List<TestBucket> buckets = ImmutableList.of(
+                new TestBucket("inactive", -1, "inactive"),
+                new TestBucket("control", 0, "control"),
+                new TestBucket("test", 2, "test")
+        );
+        assertFindsEveryBucket(buckets);
+        final TestBucketIndex index = new TestBucketIndex(buckets);
+        assertNull(index.get(1));
+        assertNull(index.get(3));
+        assertNull(index.get(Integer.MIN_VALUE));
+        assertNull(index.get(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testSparseValues() {
+        final List<TestBucket> buckets = ImmutableList.of(
+                new TestBucket("inactive", -1, "inactive"),
+                new TestBucket("million", 1000000, "million"),
+                new TestBucket("min", Integer.MIN_VALUE, "min"),
+                new TestBucket("max", Integer.MAX_VALUE, "max")
+        );
+        assertFindsEveryBucket(buckets);
+        final TestBucketIndex index = new TestBucketIndex(buckets);
+        assertNull(index.get(0));
+        assertNull(index.get(999999));
+    }
+
+    @Test
+    public void testFirstOfDuplicateValuesWins() {
+        final TestBucket first = new TestBucket("first", 1, "first");
+        final TestBucket second = new TestBucket("second", 1, "second");
+        assertSame(first, new TestBucketIndex(ImmutableList.of(first, second)).get(1));
+
+        final TestBucket sparse = new TestBucket("sparse", 5000, "sparse");
+        assertSame(first, new TestBucketIndex(ImmutableList.of(sparse, first, second)).get(1));
+
+        assertSame(second, new TestBucketIndex(Lists.reverse(ImmutableList.of(first, second))).get(1));
+        assertSame(second, new TestBucketIndex(Lists.reverse(ImmutableList.of(sparse, first, second))).get(1));
+    }
+
+    @Test
+    public void testNoBuckets() {
+        assertNull(new TestBucketIndex(Collections.<TestBucket>emptyList()).get(0));
+    }
+
+    private static void assertFindsEveryBucket(final List<TestBucket> buckets) {
+        final TestBucketIndex index = new TestBucketIndex(buckets);
+        for (final TestBucket bucket : buckets) {
+            assertSame(bucket, index.get(bucket.getValue()));
+        }
+    }
+}
@@ -2,41 +2,123 @@ package com.indeed.proctor.consumer;
 
 import com.google.common.collect.Maps;
 import com.indeed.proctor.common.ProctorResult;
+import com.indeed.proctor.common.TestIndex;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
 import com.indeed.proctor.common.model.Payload;
 import com.indeed.proctor.common.model.TestBucket;
 
 import javax.annotation.Nullable;
-import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 public abstract class AbstractGroups {
     private final ProctorResult proctorResult;
-    private final LinkedHashMap<String, TestBucket> buckets;
+    /**
+     * A copy of the result's buckets taken at construction, so that later changes to the result do not show here,
+     * unless {@link #bucketsByIndex} is used instead. A lazy result is read directly rather than copied, so that it
+     * only determines the tests that are asked about, and its later changes do show.
+     */
+    @Nullable
+    private final Map<String, TestBucket> buckets;
+    /**
+     * A copy of the result's buckets by number, taken instead of {@link #buckets} when the result has a test index
+     * that they all fit in, which is cheaper than copying them into a map
+     */
+    @Nullable
+    private final TestBucket[] bucketsByIndex;
+    @Nullable
+    private final TestIndex testIndex;
+    /**
+     * The tests of the generated subclass, looked up by number in the methods that take an int test
+     */
+    @Nullable
+    private final TestIndexMapping tests;
+    /**
+     * The number in the result's {@link com.indeed.proctor.common.TestIndex} of each of {@link #tests}, or null if
+     * the result has none and tests have to be looked up by name
+     */
+    @Nullable
+    private final int[] testIndices;
 
     protected AbstractGroups(final ProctorResult proctorResult) {
+        this(proctorResult, null);
+    }
+
+    /**
+     * Takes a snapshot of the result's buckets, so that changes made to the result afterwards are not seen, except
+     * for a lazy result, which is read as its buckets are asked for.
+     *
+     * @param tests the tests of the subclass, which are then passed by number to {@link #getTestBucket(int)},
+     *              {@link #isBucketActive(int, int)}, {@link #getValue(int, int)} and {@link #getPayload(int)}
+     */
+    protected AbstractGroups(final ProctorResult proctorResult, @Nullable final TestIndexMapping tests) {
         this.proctorResult = proctorResult;
-        this.buckets = Maps.newLinkedHashMap();
-        for (final Entry<String, TestBucket> entry : proctorResult.getBuckets().entrySet()) {
-            final TestBucket testBucket = entry.getValue();
-            this.buckets.put(entry.getKey(), testBucket);
+        this.tests = tests;
+        if (proctorResult.isLazy()) {
+            this.buckets = proctorResult.getBuckets();
+            this.bucketsByIndex = null;
+            this.testIndex = proctorResult.getTestIndex();
+        } else {
+            this.bucketsByIndex = proctorResult.copyBucketsByIndex();
+            this.testIndex = (bucketsByIndex == null) ? null : proctorResult.getTestIndex();
+            this.buckets = (bucketsByIndex == null) ? Maps.newLinkedHashMap(proctorResult.getBuckets()) : null;
         }
+        this.testIndices = (tests == null) ? null : tests.resolve(testIndex);
     }
 
     public Map<String, Integer> getTestVersions() {
         return proctorResult.getTestVersions();
     }
 
+    /**
+     * @param test the number of the test in the {@link TestIndexMapping} this was constructed with
+     */
+    @Nullable
+    protected TestBucket getTestBucket(final int test) {
+        if (testIndices != null) {
+            final int index = testIndices[test];
+            if (index < 0) {
+                return null;
+            }
+            return (bucketsByIndex != null) ? bucketsByIndex[index] : proctorResult.getBucket(index);
+        }
+        return lookUpBucket(tests.getTestName(test));
+    }
+
+    @Nullable
+    private TestBucket lookUpBucket(final String testName) {
+        if (bucketsByIndex != null) {
+            final int index = testIndex.indexOf(testName);
+            return (index < 0) ? null : bucketsByIndex[index];
+        }
+        return buckets.get(testName);
+    }
+
+    protected boolean isBucketActive(final int test, final int value) {
+        final TestBucket testBucket = getTestBucket(test);
+        return ((testBucket != null) && (value == testBucket.getValue()));
+    }
+
+    protected int getValue(final int test, final int defaultValue) {
+        final TestBucket testBucket = getTestBucket(test);
+        if (testBucket == null) {
+            return defaultValue;
+        }
+        return testBucket.getValue();
+    }
+
+    protected Payload getPayload(final int test) {
+        return getPayload(getTestBucket(test));
+    }
+
     protected boolean isBucketActive(final String testName, final int value) {
-        final TestBucket testBucket = buckets.get(testName);
+        final TestBucket testBucket = lookUpBucket(testName);
         return ((testBucket != null) && (value == testBucket.getValue()));
     }
 
     protected int getValue(final String testName, final int defaultValue) {
-        final TestBucket testBucket = buckets.get(testName);
+        final TestBucket testBucket = lookUpBucket(testName);
         if (testBucket == null) {
             return defaultValue;
         }
@@ -62,8 +144,10 @@ public abstract class AbstractGroups {
      */
     protected Payload getPayload(final String testName) {
         // Get the current bucket.
-        final TestBucket testBucket = buckets.get(testName);
+        return getPayload(lookUpBucket(testName));
+    }
 
+    private static Payload getPayload(@Nullable final TestBucket testBucket) {
         // Lookup Payloads for this test
         if (testBucket != null) {
             final Payload payload = testBucket.getPayload();
@@ -80,8 +164,7 @@ public abstract class AbstractGroups {
      *
      * Can return null if it can't find any such bucket.
      *
-     * This does a linear search over the list of defined buckets.  There shouldn't be too many buckets in any test,
-     * so this should be fast enough.
+     * This uses the bucket lookup table of the test definition rather than searching the list of defined buckets.
      */
     protected @Nullable
     TestBucket getTestBucketForBucket(final String testName, Bucket<?> targetBucket) {
@@ -89,14 +172,7 @@ public abstract class AbstractGroups {
         if (testDefinitions != null) {
             final @Nullable ConsumableTestDefinition testDefinition = testDefinitions.get(testName);
             if (testDefinition != null) {
-                final @Nullable List<TestBucket> buckets = testDefinition.getBuckets();
-                if (buckets != null) {
-                    for (final TestBucket testBucket : buckets) {
-                        if (targetBucket.getValue() == testBucket.getValue()) {
-                            return testBucket;
-                        }
-                    }
-                }
+                return testDefinition.findBucket(targetBucket.getValue());
             }
         }
         return null;
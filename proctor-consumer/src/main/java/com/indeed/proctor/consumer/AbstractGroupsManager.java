@@ -3,6 +3,7 @@ package com.indeed.proctor.consumer;
 import com.indeed.proctor.common.Identifiers;
 import com.indeed.proctor.common.Proctor;
 import com.indeed.proctor.common.ProctorResult;
+import com.indeed.proctor.common.TestSubset;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
 import com.indeed.proctor.common.model.TestBucket;
 import com.indeed.proctor.common.model.TestType;
@@ -14,6 +15,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Maps;
 
@@ -65,6 +67,20 @@ public abstract class AbstractGroupsManager implements ProctorContextDescriptor
         return result;
     }
 
+    /**
+     * Like {@link #determineBucketsInternal(Identifiers, Map, Map)}, but only determines the buckets of the tests in
+     * <code>tests</code>, which should be built once and reused for every request.
+     */
+    @VisibleForTesting
+    protected ProctorResult determineBucketsInternal(final TestSubset tests, final Identifiers identifiers, final Map<String, Object> context, final Map<String, Integer> forcedGroups) {
+        final Proctor proctor = proctorSource.get();
+        if (proctor == null) {
+            final Map<String, TestBucket> buckets = Maps.filterKeys(getDefaultBucketValues(), Predicates.in(tests.getTestNames()));
+            return new ProctorResult(-1, buckets, Collections.<String, ConsumableTestDefinition>emptyMap());
+        }
+        return proctor.determineTestGroups(tests, identifiers, context, forcedGroups);
+    }
+
     protected abstract Map<String, TestBucket> getDefaultBucketValues();
 
     protected ProctorResult determineBucketsInternal(final HttpServletRequest request, final HttpServletResponse response, final Identifiers identifiers,
@@ -78,4 +94,16 @@ public abstract class AbstractGroupsManager implements ProctorContextDescriptor
         }
         return determineBucketsInternal(identifiers, context, forcedGroups);
     }
+
+    protected ProctorResult determineBucketsInternal(final HttpServletRequest request, final HttpServletResponse response, final TestSubset tests,
+            final Identifiers identifiers, final Map<String, Object> context, final boolean allowForcedGroups) {
+        final Map<String, Integer> forcedGroups;
+        if (allowForcedGroups) {
+            forcedGroups = ProctorConsumerUtils.parseForcedGroups(request);
+            ProctorConsumerUtils.setForcedGroupsCookie(request, response, forcedGroups);
+        } else {
+            forcedGroups = Collections.emptyMap();
+        }
+        return determineBucketsInternal(tests, identifiers, context, forcedGroups);
+    }
 }
@@ -0,0 +1,63 @@
+package com.indeed.proctor.consumer;
+
+import com.indeed.proctor.common.TestIndex;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Maps the tests of a generated groups class, numbered in the order they are declared, to their numbers in the
+ * {@link TestIndex} of the loaded test matrix, so that {@link AbstractGroups} can read buckets by array access rather
+ * than by test name. The mapping is worked out once for each {@link TestIndex}, i.e. once per matrix and test subset,
+ * and kept with it; the most recent one is also kept here, so that the usual case is a single comparison.
+ */
+public final class TestIndexMapping {
+    @Nonnull
+    private final String[] testNames;
+    @Nullable
+    private volatile Resolution lastResolution;
+
+    public TestIndexMapping(@Nonnull final String... testNames) {
+        this.testNames = testNames.clone();
+    }
+
+    public int size() {
+        return testNames.length;
+    }
+
+    @Nonnull
+    public String getTestName(final int test) {
+        return testNames[test];
+    }
+
+    /**
+     * @return the number in <code>testIndex</code> of each test, or -1 if the matrix doesn't have it; null if there is
+     * no index to map to
+     */
+    @Nullable
+    int[] resolve(@Nullable final TestIndex testIndex) {
+        if (testIndex == null) {
+            return null;
+        }
+        final Resolution resolution = lastResolution;
+        if (resolution != null && resolution.testIndex == testIndex) {
+            return resolution.indices;
+        }
+        //  results of a subset have a different index than full results of the same matrix
+        final int[] indices = testIndex.indicesOf(this, testNames);
+        lastResolution = new Resolution(testIndex, indices);
+        return indices;
+    }
+
+    private static class Resolution {
+        @Nonnull
+        private final TestIndex testIndex;
+        @Nonnull
+        private final int[] indices;
+
+        private Resolution(@Nonnull final TestIndex testIndex, @Nonnull final int[] indices) {
+            this.testIndex = testIndex;
+            this.indices = indices;
+        }
+    }
+}
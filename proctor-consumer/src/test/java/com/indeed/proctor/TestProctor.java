@@ -4,6 +4,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.indeed.proctor.common.*;
+import com.indeed.proctor.consumer.AbstractGroups;
+import com.indeed.proctor.consumer.TestIndexMapping;
 import com.indeed.proctor.common.model.Allocation;
 import com.indeed.proctor.common.model.Audit;
 import com.indeed.proctor.common.model.ConsumableTestDefinition;
@@ -13,6 +15,8 @@ import com.indeed.proctor.common.model.TestMatrixArtifact;
 import com.indeed.proctor.common.model.TestType;
 import org.junit.Test;
 
+import javax.el.FunctionMapper;
+
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -20,8 +24,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * More of an integration test than a unit test
@@ -73,7 +81,222 @@ public class TestProctor {
         assertEquals("abc0,def0",   calcGroups(proctor, "aksdh8947jh4807", "UY", "pt", 4));
     }
 
+    @Test
+    public void testBatchMatchesSingleCalls() throws InterruptedException {
+        final Proctor proctor = constructProctor();
+
+        final List<ProctorRequest> requests = Lists.newArrayList();
+        for (final String id : new String[] { "piafdsff", "8719568712", "aksdh8947jh4807" }) {
+            for (final String country : new String[] { "AR", "IO", "UY" }) {
+                for (final String language : new String[] { "en", "pt" }) {
+                    for (final int num : new int[] { 4, 9 }) {
+                        requests.add(new ProctorRequest(new Identifiers(TestType.USER, id), createContext(country, language, num)));
+                    }
+                }
+            }
+        }
+        requests.add(new ProctorRequest(new Identifiers(TestType.USER, "piafdsff"), createContext("IO", "pt", 4), Collections.singletonMap("def", 1)));
+
+        final List<String> expected = Lists.newArrayList();
+        for (final ProctorRequest request : requests) {
+            expected.add(describe(proctor.determineTestGroups(request.getIdentifiers(), request.getContext(), request.getForceGroups())));
+        }
+
+        final List<String> sequential = Lists.newArrayList();
+        for (final ProctorResult result : proctor.determineTestGroups(requests)) {
+            sequential.add(describe(result));
+        }
+        assertEquals(expected, sequential);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final List<String> parallel = Lists.newArrayList();
+            for (final ProctorResult result : proctor.determineTestGroups(requests, executor, 5)) {
+                parallel.add(describe(result));
+            }
+            assertEquals(expected, parallel);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubsetOnlyDeterminesSelectedTests() {
+        final TestSubset tests = TestSubset.of("ghi", "abc", "missing");
+        for (int i = 0; i < 2; i++) {
+            //  a reloaded matrix needs the subset resolved again
+            final Proctor proctor = constructProctor();
+            final Map<String, Object> context = createContext("IO", "pt", 4);
+            final Identifiers identifiers = new Identifiers(TestType.USER, "piafdsff");
+
+            final ProctorResult full = proctor.determineTestGroups(identifiers, context, Collections.<String, Integer>emptyMap());
+            assertEquals("abc0,def2,ghi3", describe(full));
+
+            for (int j = 0; j < 2; j++) {
+                final ProctorResult result = proctor.determineTestGroups(tests, identifiers, context, Collections.<String, Integer>emptyMap());
+                assertEquals("abc0,ghi3", describe(result));
+                assertEquals(Arrays.asList("abc", "ghi"), Lists.newArrayList(result.getTestDefinitions().keySet()));
+            }
+
+            final ProctorResult forced = proctor.determineTestGroups(tests, identifiers, context, Collections.singletonMap("ghi", 1));
+            assertEquals("abc0,ghi1", describe(forced));
+        }
+    }
+
+    @Test
+    public void testLazyResultMatchesEager() {
+        final Proctor proctor = constructProctor();
+        for (final String id : new String[] { "piafdsff", "8719568712", "aksdh8947jh4807" }) {
+            for (final int num : new int[] { 4, 9 }) {
+                final Identifiers identifiers = new Identifiers(TestType.USER, id);
+                final Map<String, Object> context = createContext("IO", "pt", num);
+                final Map<String, Integer> forceGroups = Collections.singletonMap("def", 1);
+                final ProctorResult eager = proctor.determineTestGroups(identifiers, context, forceGroups);
+
+                final ProctorResult lazy = proctor.determineTestGroupsLazily(identifiers, context, forceGroups);
+                assertEquals(eager.getBuckets().get("ghi"), lazy.getBuckets().get("ghi"));
+                assertEquals(eager.getBuckets().get("abc"), lazy.getBuckets().get("abc"));
+                assertEquals(eager.getBuckets().containsKey("abc"), lazy.getBuckets().containsKey("abc"));
+                assertNull(lazy.getBuckets().get("missing"));
+                lazy.materialize();
+                assertEquals(describe(eager), describe(lazy));
+                assertEquals(eager.getBuckets(), lazy.getBuckets());
+                assertEquals(eager.getTestVersions(), lazy.getTestVersions());
+
+                final ProctorResult lazySubset = proctor.determineTestGroupsLazily(TestSubset.of("def"), identifiers, context, forceGroups);
+                assertEquals("def1", describe(lazySubset));
+            }
+        }
+    }
+
+    @Test
+    public void testGroupsReadTestsByIndex() {
+        final TestIndexMapping tests = new TestIndexMapping("ghi", "missing", "abc");
+        for (int i = 0; i < 2; i++) {
+            final Proctor proctor = constructProctor();
+            final ProctorResult result = proctor.determineTestGroups(new Identifiers(TestType.USER, "piafdsff"), createContext("AR", "pt", 4), Collections.<String, Integer>emptyMap());
+            final ProctorResult copy = new ProctorResult(-1, Maps.newHashMap(result.getBuckets()), result.getTestDefinitions());
+            for (final ProctorResult proctorResult : new ProctorResult[] { result, copy }) {
+                final IndexedGroups groups = new IndexedGroups(proctorResult, tests);
+                assertEquals(3, groups.value(0, -2));
+                assertTrue(groups.isActive(0, 3));
+                assertEquals(-2, groups.value(1, -2));
+                assertNull(groups.bucket(1));
+                assertEquals(result.getBuckets().get("abc"), groups.bucket(2));
+            }
+        }
+    }
+
+    @Test
+    public void testGroupsAlternatingFullAndSubsetResults() {
+        final TestIndexMapping tests = new TestIndexMapping("ghi", "missing", "abc");
+        final Proctor proctor = constructProctor();
+        final Identifiers identifiers = new Identifiers(TestType.USER, "piafdsff");
+        final Map<String, Object> context = createContext("AR", "pt", 4);
+        final TestSubset subset = TestSubset.of("abc");
+        for (int i = 0; i < 3; i++) {
+            final ProctorResult full = proctor.determineTestGroups(identifiers, context, Collections.<String, Integer>emptyMap());
+            final IndexedGroups fullGroups = new IndexedGroups(full, tests);
+            assertEquals(3, fullGroups.value(0, -2));
+            assertEquals(0, fullGroups.value(2, -2));
+
+            final ProctorResult partial = proctor.determineTestGroups(subset, identifiers, context, Collections.<String, Integer>emptyMap());
+            final IndexedGroups partialGroups = new IndexedGroups(partial, tests);
+            assertEquals(-2, partialGroups.value(0, -2));
+            assertEquals(0, partialGroups.value(2, -2));
+
+            //  each index keeps the mapping worked out for it, rather than it being worked out again on every switch
+            assertEquals(3, full.getTestIndex().indicesOf(tests, new String[0]).length);
+            assertEquals(3, partial.getTestIndex().indicesOf(tests, new String[0]).length);
+        }
+    }
+
+    @Test
+    public void testGroupsSnapshotTheResult() {
+        final TestIndexMapping tests = new TestIndexMapping("ghi", "missing", "abc");
+        final Proctor proctor = constructProctor();
+        final Identifiers identifiers = new Identifiers(TestType.USER, "piafdsff");
+        final Map<String, Object> context = createContext("AR", "pt", 4);
+        final TestBucket forced = new TestBucket("forced", 7, "forced");
+
+        final ProctorResult result = proctor.determineTestGroups(identifiers, context, Collections.<String, Integer>emptyMap());
+        final IndexedGroups groups = new IndexedGroups(result, tests);
+        result.getBuckets().put("ghi", forced);
+        result.getBuckets().remove("abc");
+        assertEquals(3, groups.value(0, -2));
+        assertEquals(3, groups.value("ghi", -2));
+        assertEquals(0, groups.value(2, -2));
+        assertEquals(0, groups.value("abc", -2));
+
+        //  changed before construction, and then again
+        final IndexedGroups changedGroups = new IndexedGroups(result, tests);
+        result.getBuckets().remove("ghi");
+        assertEquals(7, changedGroups.value(0, -2));
+        assertEquals(7, changedGroups.value("ghi", -2));
+        assertEquals(-2, changedGroups.value(2, -2));
+        assertEquals(-2, changedGroups.value("abc", -2));
+
+        //  a lazy result is read as it is asked about, so later changes do show
+        final ProctorResult lazy = proctor.determineTestGroupsLazily(identifiers, context, Collections.<String, Integer>emptyMap());
+        final IndexedGroups lazyGroups = new IndexedGroups(lazy, tests);
+        lazy.getBuckets().put("ghi", forced);
+        assertEquals(7, lazyGroups.value(0, -2));
+        assertEquals(7, lazyGroups.value("ghi", -2));
+        assertEquals(0, lazyGroups.value(2, -2));
+    }
+
+    private static class IndexedGroups extends AbstractGroups {
+        private IndexedGroups(final ProctorResult proctorResult, final TestIndexMapping tests) {
+            super(proctorResult, tests);
+        }
+
+        private int value(final int test, final int defaultValue) {
+            return getValue(test, defaultValue);
+        }
+
+        private boolean isActive(final int test, final int value) {
+            return isBucketActive(test, value);
+        }
+
+        private TestBucket bucket(final int test) {
+            return getTestBucket(test);
+        }
+
+        private int value(final String testName, final int defaultValue) {
+            return getValue(testName, defaultValue);
+        }
+    }
+
+    @Test
+    public void testReconstructWithPreviousProctor() {
+        final FunctionMapper functionMapper = RuleEvaluator.defaultFunctionMapperBuilder().build();
+        final Proctor previous = Proctor.construct(constructMatrix(), ProctorLoadResult.emptyResult(), functionMapper);
+
+        final TestMatrixArtifact changedMatrix = constructMatrix();
+        final ConsumableTestDefinition ghiTD = changedMatrix.getTests().get("ghi");
+        ghiTD.setVersion(4);
+        ghiTD.setRule("${proctor:contains(LANGUAGES, language) && num > 5}");
+        final Proctor reconstructed = Proctor.construct(changedMatrix, ProctorLoadResult.emptyResult(), functionMapper, previous);
+        final Proctor fresh = Proctor.construct(changedMatrix, ProctorLoadResult.emptyResult(), functionMapper);
+
+        for (final String id : new String[] { "piafdsff", "8719568712", "aksdh8947jh4807" }) {
+            for (final String country : new String[] { "AR", "IO", "UY" }) {
+                for (final String language : new String[] { "en", "pt" }) {
+                    for (final int num : new int[] { 4, 9 }) {
+                        assertEquals(calcGroups(fresh, id, country, language, num), calcGroups(reconstructed, id, country, language, num));
+                    }
+                }
+            }
+        }
+        assertEquals("abc0,def2", calcGroups(reconstructed, "piafdsff", "IO", "pt", 4));
+        assertEquals("def2,ghi3", calcGroups(reconstructed, "piafdsff", "IO", "pt", 9));
+    }
+
     private Proctor constructProctor() {
+        return Proctor.construct(constructMatrix(), ProctorLoadResult.emptyResult(), RuleEvaluator.defaultFunctionMapperBuilder().build());
+    }
+
+    private TestMatrixArtifact constructMatrix() {
         final TestMatrixArtifact matrix = new TestMatrixArtifact();
 
         final Audit audit = new Audit();
@@ -138,7 +361,7 @@ final Map<String, Object> constants, final String description) {
 
         matrix.setTests(tests);
 
-        return Proctor.construct(matrix, ProctorLoadResult.emptyResult(), RuleEvaluator.defaultFunctionMapperBuilder().build());
+        return matrix;
     }
 
     private String calcGroups(final Proctor proctor, final String id, final String country, final String language, final int num) {
@@ -147,14 +370,23 @@ final Map<String, Object> constants, final String description) {
 
     private String calcGroups(final Proctor proctor, final String id, final String country, final String language, final int num,
             final Map<String, Integer> forceGroups) {
+        final Map<String, Object> context = createContext(country, language, num);
+
+        final Identifiers identifiers = new Identifiers(TestType.USER, id);
+
+        final ProctorResult proctorResult = proctor.determineTestGroups(identifiers, context, forceGroups);
+        return describe(proctorResult);
+    }
+
+    private static Map<String, Object> createContext(final String country, final String language, final int num) {
         final Map<String, Object> context = Maps.newHashMap();
         context.put("num", Integer.valueOf(num));
         context.put("country", country);
         context.put("language", language);
+        return context;
+    }
 
-        final Identifiers identifiers = new Identifiers(TestType.USER, id);
-
-        final ProctorResult proctorResult = proctor.determineTestGroups(identifiers, context, forceGroups);
+    private static String describe(final ProctorResult proctorResult) {
         final StringBuilder buckets = new StringBuilder();
         for (final Iterator<Entry<String, TestBucket>> iterator = proctorResult.getBuckets().entrySet().iterator(); iterator.hasNext(); ) {
             final Entry<String, TestBucket> entry = iterator.next();
@@ -6,8 +6,11 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.OutputStream;
 import java.io.Writer;
 
 @Mojo(name = "generate-matrix")
@@ -19,6 +22,12 @@ public class BuilderMojo extends AbstractMojo {
     @Parameter(property = "outputFile", defaultValue = "${project.build.directory}/proctor-test-matrix.json")
     private File outputFile;
 
+    /**
+     * If set, the artifact is also written to this file in the binary format, which consumers load faster
+     */
+    @Parameter(property = "binaryOutputFile")
+    private File binaryOutputFile;
+
     @Parameter(property = "author", defaultValue = "")
     private String author;
 
@@ -32,8 +41,12 @@ public class BuilderMojo extends AbstractMojo {
         }
         try {
             Writer w = new FileWriter(outputFile);
-            new LocalProctorBuilder(topDirectory, w, "".equals(author) ? author : null, version).execute();
+            OutputStream b = binaryOutputFile == null ? null : new BufferedOutputStream(new FileOutputStream(binaryOutputFile));
+            new LocalProctorBuilder(topDirectory, w, b, "".equals(author) ? author : null, version).execute();
             w.close();
+            if (b != null) {
+                b.close();
+            }
         } catch (Exception e) {
             throw new MojoExecutionException("Failure during builder execution", e);
         }